@@ -0,0 +1,28 @@
+package dev.emmily.sigma.api;
+
+/**
+ * A {@link Model} carrying the version it was read at, so it can
+ * be written back only if nobody else wrote it in the meantime.
+ * The version is stored along with the rest of the model, and
+ * models which were never written have the version 0.
+ *
+ * @see dev.emmily.sigma.api.repository.ModelRepository#createVersioned(Model)
+ */
+public interface VersionedModel
+  extends Model {
+  long getVersion();
+
+  void setVersion(long version);
+
+  /**
+   * @throws IllegalArgumentException If the given model isn't
+   *                                  versioned.
+   */
+  static VersionedModel of(Model model) {
+    if (!(model instanceof VersionedModel)) {
+      throw new IllegalArgumentException("Model " + model.getId() + " isn't a VersionedModel");
+    }
+
+    return (VersionedModel) model;
+  }
+}
@@ -0,0 +1,56 @@
+package dev.emmily.sigma.api.aggregation;
+
+/**
+ * A value computed for every group of an {@link Aggregation}.
+ */
+public final class Accumulator {
+  private final String name;
+  private final Type type;
+  private final String field;
+
+  Accumulator(
+    String name,
+    Type type,
+    String field
+  ) {
+    this.name = name;
+    this.type = type;
+    this.field = field;
+  }
+
+  /**
+   * @return The name of the value in the resulting rows.
+   */
+  public String getName() {
+    return name;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * @return The accumulated field, or null when counting.
+   */
+  public String getField() {
+    return field;
+  }
+
+  public enum Type {
+    /**
+     * The amount of models of the group.
+     */
+    COUNT,
+    /**
+     * The sum of the numeric values of the field, a long if every
+     * value is integral, otherwise a double.
+     */
+    SUM,
+    /**
+     * The average of the numeric values of the field, as a double.
+     */
+    AVG,
+    MIN,
+    MAX
+  }
+}
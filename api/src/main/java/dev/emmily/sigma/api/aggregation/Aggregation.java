@@ -0,0 +1,118 @@
+package dev.emmily.sigma.api.aggregation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes a summary over the models of a repository, which
+ * are optionally filtered by a query, grouped by the values of
+ * some fields and reduced to a row of accumulated values per
+ * group. Fields are named by the Java fields of the models,
+ * dotted paths reach into embedded objects. Repositories which
+ * aggregate on their backend use these names as the stored names,
+ * so fields renamed by the codec of the models aren't supported.
+ * Aggregations are immutable, every method returns a new
+ * aggregation.
+ *
+ * @see dev.emmily.sigma.api.repository.ModelRepository#aggregate(Aggregation)
+ */
+public final class Aggregation {
+  private final Object match;
+  private final List<String> groupFields;
+  private final List<Accumulator> accumulators;
+
+  private Aggregation(
+    Object match,
+    List<String> groupFields,
+    List<Accumulator> accumulators
+  ) {
+    this.match = match;
+    this.groupFields = groupFields;
+    this.accumulators = accumulators;
+  }
+
+  /**
+   * Groups the models by the values of the given fields, or
+   * puts all of them in a single group if none are given.
+   */
+  public static Aggregation groupBy(String... fields) {
+    return new Aggregation(
+      null,
+      Collections.unmodifiableList(Arrays.asList(fields)),
+      Collections.emptyList()
+    );
+  }
+
+  /**
+   * Only aggregates the models matching the given query, which
+   * is of the same type as the queries of the repository.
+   */
+  public Aggregation match(Object query) {
+    return new Aggregation(query, groupFields, accumulators);
+  }
+
+  public Aggregation count(String name) {
+    return with(name, Accumulator.Type.COUNT, null);
+  }
+
+  public Aggregation sum(
+    String name,
+    String field
+  ) {
+    return with(name, Accumulator.Type.SUM, field);
+  }
+
+  public Aggregation avg(
+    String name,
+    String field
+  ) {
+    return with(name, Accumulator.Type.AVG, field);
+  }
+
+  public Aggregation min(
+    String name,
+    String field
+  ) {
+    return with(name, Accumulator.Type.MIN, field);
+  }
+
+  public Aggregation max(
+    String name,
+    String field
+  ) {
+    return with(name, Accumulator.Type.MAX, field);
+  }
+
+  private Aggregation with(
+    String name,
+    Accumulator.Type type,
+    String field
+  ) {
+    if (name.equals("_id") || groupFields.contains(name)) {
+      throw new IllegalArgumentException("Invalid accumulator name: " + name);
+    }
+
+    List<Accumulator> accumulators = new ArrayList<>(this.accumulators);
+    accumulators.add(new Accumulator(name, type, field));
+
+    return new Aggregation(match, groupFields, Collections.unmodifiableList(accumulators));
+  }
+
+  /**
+   * @return The query filtering the aggregated models, or null
+   * if every model is aggregated.
+   */
+  public Object getMatch() {
+    return match;
+  }
+
+  public List<String> getGroupFields() {
+    return groupFields;
+  }
+
+  public List<Accumulator> getAccumulators() {
+    return accumulators;
+  }
+}
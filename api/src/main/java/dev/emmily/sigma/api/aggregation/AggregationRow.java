@@ -0,0 +1,57 @@
+package dev.emmily.sigma.api.aggregation;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The result of an {@link Aggregation} for a single group,
+ * holding the values of the grouped fields and the values
+ * of the accumulators.
+ */
+public final class AggregationRow {
+  private final Map<String, Object> keys;
+  private final Map<String, Object> values;
+
+  public AggregationRow(
+    Map<String, Object> keys,
+    Map<String, Object> values
+  ) {
+    this.keys = Collections.unmodifiableMap(keys);
+    this.values = Collections.unmodifiableMap(values);
+  }
+
+  /**
+   * @return The value of the given grouped field for this group.
+   */
+  public Object getKey(String field) {
+    return keys.get(field);
+  }
+
+  public Map<String, Object> getKeys() {
+    return keys;
+  }
+
+  /**
+   * @return The value of the accumulator with the given name.
+   */
+  public Object get(String name) {
+    return values.get(name);
+  }
+
+  /**
+   * @return The numeric value of the accumulator with the given
+   * name, or null if it has no value.
+   */
+  public Number getNumber(String name) {
+    return (Number) values.get(name);
+  }
+
+  public Map<String, Object> getValues() {
+    return values;
+  }
+
+  @Override
+  public String toString() {
+    return "AggregationRow(" + keys + ", " + values + ")";
+  }
+}
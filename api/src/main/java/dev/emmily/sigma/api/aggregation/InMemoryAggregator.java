@@ -0,0 +1,318 @@
+package dev.emmily.sigma.api.aggregation;
+
+import java.lang.reflect.Field;
+import java.time.Instant;
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Computes an {@link Aggregation} over models handed one by
+ * one, keeping only the state of every group in memory, for
+ * the repositories which can't aggregate on their backend.
+ * Fields are read by reflection using the names of the Java
+ * fields, or from maps. Missing and null values are ignored by
+ * every accumulator but counts.
+ */
+public class InMemoryAggregator {
+  private static final Map<Class<?>, Map<String, Field>> FIELDS = new ConcurrentHashMap<>();
+  private final Aggregation aggregation;
+  private final Map<List<Object>, Group> groups = new LinkedHashMap<>();
+
+  public InMemoryAggregator(Aggregation aggregation) {
+    this.aggregation = aggregation;
+  }
+
+  /**
+   * Aggregates the given models at once.
+   */
+  public static List<AggregationRow> aggregate(
+    Aggregation aggregation,
+    Iterable<?> models
+  ) {
+    InMemoryAggregator aggregator = new InMemoryAggregator(aggregation);
+
+    for (Object model : models) {
+      aggregator.add(model);
+    }
+
+    return aggregator.getRows();
+  }
+
+  public void add(Object model) {
+    List<String> groupFields = aggregation.getGroupFields();
+    Object[] key = new Object[groupFields.size()];
+
+    for (int i = 0; i < key.length; i++) {
+      key[i] = valueOf(model, groupFields.get(i));
+    }
+
+    groups.computeIfAbsent(Arrays.asList(key), ignored -> new Group(aggregation.getAccumulators().size()))
+      .add(model);
+  }
+
+  /**
+   * @return A row per group, in the order the groups were
+   * first seen.
+   */
+  public List<AggregationRow> getRows() {
+    List<String> groupFields = aggregation.getGroupFields();
+    List<Accumulator> accumulators = aggregation.getAccumulators();
+    List<AggregationRow> rows = new ArrayList<>(groups.size());
+
+    for (Map.Entry<List<Object>, Group> entry : groups.entrySet()) {
+      Map<String, Object> keys = new LinkedHashMap<>();
+
+      for (int i = 0; i < groupFields.size(); i++) {
+        keys.put(groupFields.get(i), entry.getKey().get(i));
+      }
+
+      Group group = entry.getValue();
+      Map<String, Object> values = new LinkedHashMap<>();
+
+      for (int i = 0; i < accumulators.size(); i++) {
+        values.put(accumulators.get(i).getName(), group.result(accumulators.get(i), i));
+      }
+
+      rows.add(new AggregationRow(keys, values));
+    }
+
+    return rows;
+  }
+
+  /**
+   * Reads the value at the given dotted path of the given object.
+   *
+   * @return The value, or null if the path doesn't exist.
+   */
+  public static Object valueOf(
+    Object object,
+    String path
+  ) {
+    Object value = object;
+
+    for (String name : path.split("\\.")) {
+      if (value == null) {
+        return null;
+      }
+
+      if (value instanceof Map) {
+        value = ((Map<?, ?>) value).get(name);
+        continue;
+      }
+
+      Field field = fieldOf(value.getClass(), name);
+
+      if (field == null) {
+        return null;
+      }
+
+      try {
+        value = field.get(value);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    return value;
+  }
+
+  private static Field fieldOf(
+    Class<?> type,
+    String name
+  ) {
+    Map<String, Field> fields = FIELDS.computeIfAbsent(type, ignored -> {
+      Map<String, Field> found = new ConcurrentHashMap<>();
+
+      for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+        for (Field field : current.getDeclaredFields()) {
+          if (!found.containsKey(field.getName())) {
+            field.setAccessible(true);
+            found.put(field.getName(), field);
+          }
+        }
+      }
+
+      return found;
+    });
+
+    return fields.get(name);
+  }
+
+  /**
+   * Compares values of any type, ordering the types as BSON does,
+   * so fields holding mixed types can be compared: numbers, then
+   * strings, embedded objects, arrays, binary data, booleans and
+   * dates. Values of the same type are compared by their natural
+   * order, or by their string form if they don't have one.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static int compare(
+    Object first,
+    Object second
+  ) {
+    int comparison = Integer.compare(rankOf(first), rankOf(second));
+
+    if (comparison != 0) {
+      return comparison;
+    }
+
+    if (first instanceof Number) {
+      return isIntegral(first) && isIntegral(second)
+        ? Long.compare(((Number) first).longValue(), ((Number) second).longValue())
+        : Double.compare(((Number) first).doubleValue(), ((Number) second).doubleValue());
+    }
+
+    if (isInstant(first) && isInstant(second)) {
+      return Long.compare(millisOf(first), millisOf(second));
+    }
+
+    if (first.getClass() == second.getClass() && first instanceof Comparable) {
+      return ((Comparable) first).compareTo(second);
+    }
+
+    return stringOf(first).compareTo(stringOf(second));
+  }
+
+  private static int rankOf(Object value) {
+    if (value instanceof Number) {
+      return 0;
+    }
+
+    if (value instanceof CharSequence || value instanceof Character || value instanceof Enum) {
+      return 1;
+    }
+
+    if (value instanceof Map) {
+      return 2;
+    }
+
+    if (value instanceof byte[] || value instanceof UUID) {
+      return 4;
+    }
+
+    if (value instanceof Collection || value.getClass().isArray()) {
+      return 3;
+    }
+
+    if (value instanceof Boolean) {
+      return 5;
+    }
+
+    if (value instanceof Date || value instanceof Temporal) {
+      return 6;
+    }
+
+    return 7;
+  }
+
+  private static boolean isIntegral(Object number) {
+    return number instanceof Long
+      || number instanceof Integer
+      || number instanceof Short
+      || number instanceof Byte;
+  }
+
+  private static boolean isInstant(Object value) {
+    return value instanceof Date || value instanceof Instant;
+  }
+
+  private static long millisOf(Object instant) {
+    return instant instanceof Date ? ((Date) instant).getTime() : ((Instant) instant).toEpochMilli();
+  }
+
+  private static String stringOf(Object value) {
+    return value instanceof Enum ? ((Enum<?>) value).name() : String.valueOf(value);
+  }
+
+  private class Group {
+    private long count;
+    private final long[] longSums;
+    private final double[] doubleSums;
+    private final long[] counts;
+    private final boolean[] fractional;
+    private final Object[] extremes;
+
+    private Group(int size) {
+      this.longSums = new long[size];
+      this.doubleSums = new double[size];
+      this.counts = new long[size];
+      this.fractional = new boolean[size];
+      this.extremes = new Object[size];
+    }
+
+    private void add(Object model) {
+      count++;
+
+      List<Accumulator> accumulators = aggregation.getAccumulators();
+
+      for (int i = 0; i < accumulators.size(); i++) {
+        Accumulator accumulator = accumulators.get(i);
+
+        if (accumulator.getType() == Accumulator.Type.COUNT) {
+          continue;
+        }
+
+        Object value = valueOf(model, accumulator.getField());
+
+        if (value == null) {
+          continue;
+        }
+
+        switch (accumulator.getType()) {
+          case SUM:
+          case AVG:
+            if (!(value instanceof Number)) {
+              break;
+            }
+
+            Number number = (Number) value;
+
+            if (number instanceof Double || number instanceof Float) {
+              fractional[i] = true;
+            }
+
+            longSums[i] += number.longValue();
+            doubleSums[i] += number.doubleValue();
+            counts[i]++;
+            break;
+          case MIN:
+            if (extremes[i] == null || compare(value, extremes[i]) < 0) {
+              extremes[i] = value;
+            }
+            break;
+          case MAX:
+            if (extremes[i] == null || compare(value, extremes[i]) > 0) {
+              extremes[i] = value;
+            }
+            break;
+          default:
+            break;
+        }
+      }
+    }
+
+    private Object result(
+      Accumulator accumulator,
+      int index
+    ) {
+      switch (accumulator.getType()) {
+        case COUNT:
+          return count;
+        case SUM:
+          return fractional[index] ? (Object) doubleSums[index] : (Object) longSums[index];
+        case AVG:
+          return counts[index] == 0 ? null : doubleSums[index] / counts[index];
+        default:
+          return extremes[index];
+      }
+    }
+  }
+}
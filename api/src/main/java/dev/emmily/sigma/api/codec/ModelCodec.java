@@ -3,6 +3,8 @@ package dev.emmily.sigma.api.codec;
 import dev.emmily.sigma.api.Model;
 import team.unnamed.reflect.identity.TypeReference;
 
+import java.util.Map;
+
 public interface ModelCodec {
   <T extends Model> String serializeAsString(T model);
 
@@ -31,4 +33,34 @@ public interface ModelCodec {
   ) {
     return deserializeFromBytes(source, TypeReference.of(type));
   }
+
+  /**
+   * Serializes the given model as a map of its top-level
+   * properties to their serialized values, used by storages
+   * which can store and update every property separately.
+   * Null properties may be left out of the map.
+   *
+   * @throws UnsupportedOperationException If this codec doesn't
+   *                                       support property maps.
+   */
+  default <T extends Model> Map<String, String> serializeAsMap(T model) {
+    throw new UnsupportedOperationException(getClass().getSimpleName() +
+      " doesn't support property maps");
+  }
+
+  /**
+   * Deserializes a model from a map created by
+   * {@link #serializeAsMap(Model)}, which may only contain
+   * some of the properties of the model.
+   *
+   * @throws UnsupportedOperationException If this codec doesn't
+   *                                       support property maps.
+   */
+  default <T extends Model> T deserializeFromMap(
+    Map<String, String> source,
+    TypeReference<T> type
+  ) {
+    throw new UnsupportedOperationException(getClass().getSimpleName() +
+      " doesn't support property maps");
+  }
 }
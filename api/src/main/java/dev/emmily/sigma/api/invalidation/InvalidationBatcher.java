@@ -0,0 +1,106 @@
+package dev.emmily.sigma.api.invalidation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the ids changed by a node and publishes them
+ * in a single message once the given delay has passed
+ * since the first one, so bursts of writes produce one
+ * message holding every distinct id. Failures of the
+ * scheduled publications are reported to the uncaught
+ * exception handler of the scheduler thread.
+ */
+public class InvalidationBatcher {
+  private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "sigma-invalidation-batcher");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final InvalidationBus bus;
+  private final String origin;
+  private final long delayMillis;
+  private Set<String> pending = new LinkedHashSet<>();
+  private boolean everything;
+  private boolean scheduled;
+
+  /**
+   * @param bus         The bus where the ids are published.
+   * @param origin      The id of the publishing node.
+   * @param delayMillis The time ids are collected before being
+   *                    published, 0 publishes them immediately.
+   */
+  public InvalidationBatcher(
+    InvalidationBus bus,
+    String origin,
+    long delayMillis
+  ) {
+    this.bus = bus;
+    this.origin = origin;
+    this.delayMillis = delayMillis;
+  }
+
+  /**
+   * @param ids The changed ids, or an empty collection if
+   *            any model may have changed.
+   */
+  public void add(Collection<String> ids) {
+    if (delayMillis <= 0) {
+      bus.publish(origin, ids);
+      return;
+    }
+
+    synchronized (this) {
+      if (ids.isEmpty()) {
+        everything = true;
+      } else if (!everything) {
+        pending.addAll(ids);
+      }
+
+      if (scheduled) {
+        return;
+      }
+
+      scheduled = true;
+    }
+
+    SCHEDULER.schedule(this::scheduledFlush, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void scheduledFlush() {
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      // the scheduler would keep it in the discarded future
+      Thread current = Thread.currentThread();
+      current.getUncaughtExceptionHandler().uncaughtException(current, e);
+    }
+  }
+
+  public void flush() {
+    Collection<String> ids;
+
+    synchronized (this) {
+      scheduled = false;
+
+      if (everything) {
+        ids = Collections.emptyList();
+      } else if (pending.isEmpty()) {
+        return;
+      } else {
+        ids = new ArrayList<>(pending);
+      }
+
+      pending = new LinkedHashSet<>();
+      everything = false;
+    }
+
+    bus.publish(origin, ids);
+  }
+}
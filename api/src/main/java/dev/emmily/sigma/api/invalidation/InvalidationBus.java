@@ -0,0 +1,30 @@
+package dev.emmily.sigma.api.invalidation;
+
+import java.util.Collection;
+
+/**
+ * Represents a channel shared by the processes caching
+ * the same models, used to tell the other processes which
+ * models were changed so they can evict their cached
+ * copies. An empty collection of ids means that any model
+ * may have changed.
+ */
+public interface InvalidationBus {
+  /**
+   * Publishes the given ids to every listener, including
+   * the listeners of the publishing process.
+   *
+   * @param origin The id of the publishing node, so listeners
+   *               can ignore their own invalidations.
+   * @param ids    The changed ids, or an empty collection if
+   *               any model may have changed.
+   */
+  void publish(
+    String origin,
+    Collection<String> ids
+  );
+
+  void subscribe(InvalidationListener listener);
+
+  void unsubscribe(InvalidationListener listener);
+}
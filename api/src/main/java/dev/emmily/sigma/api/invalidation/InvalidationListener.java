@@ -0,0 +1,19 @@
+package dev.emmily.sigma.api.invalidation;
+
+import java.util.Collection;
+
+@FunctionalInterface
+public interface InvalidationListener {
+  /**
+   * @param origin The id of the node which published the
+   *               invalidation, or null if it was generated
+   *               by the bus itself, e.g. after messages
+   *               may have been lost.
+   * @param ids    The changed ids, or an empty collection if
+   *               any model may have changed.
+   */
+  void onInvalidation(
+    String origin,
+    Collection<String> ids
+  );
+}
@@ -0,0 +1,36 @@
+package dev.emmily.sigma.api.invalidation;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An {@link InvalidationBus} delivering the invalidations
+ * to the listeners of the same JVM synchronously, meant
+ * for tests and for several caches living in the same
+ * process.
+ */
+public class LocalInvalidationBus
+  implements InvalidationBus {
+  private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+
+  @Override
+  public void publish(
+    String origin,
+    Collection<String> ids
+  ) {
+    for (InvalidationListener listener : listeners) {
+      listener.onInvalidation(origin, ids);
+    }
+  }
+
+  @Override
+  public void subscribe(InvalidationListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void unsubscribe(InvalidationListener listener) {
+    listeners.remove(listener);
+  }
+}
@@ -0,0 +1,52 @@
+package dev.emmily.sigma.api.query;
+
+/**
+ * Wraps a query with an explicit key, so the results of queries
+ * without a canonical form, like predicates, can be cached. The
+ * repositories unwrap the query before running it.
+ */
+public final class KeyedQuery {
+  private final String key;
+  private final Object query;
+
+  private KeyedQuery(
+    String key,
+    Object query
+  ) {
+    this.key = key;
+    this.query = query;
+  }
+
+  /**
+   * @param key   The key of the query, which must be the same for
+   *              every query returning the same results.
+   * @param query The wrapped query.
+   */
+  public static KeyedQuery of(
+    String key,
+    Object query
+  ) {
+    return new KeyedQuery(key, query);
+  }
+
+  /**
+   * @return The wrapped query if the given query is keyed,
+   * otherwise the given query.
+   */
+  public static Object unwrap(Object query) {
+    return query instanceof KeyedQuery ? ((KeyedQuery) query).query : query;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public Object getQuery() {
+    return query;
+  }
+
+  @Override
+  public String toString() {
+    return "KeyedQuery(" + key + ")";
+  }
+}
@@ -0,0 +1,33 @@
+package dev.emmily.sigma.api.query;
+
+/**
+ * Turns queries into keys identifying their results, used by
+ * the query result cache of the cached repositories. Queries
+ * which are equivalent should have equal keys.
+ */
+@FunctionalInterface
+public interface QueryNormalizer {
+  /**
+   * Accepts String queries, which are trimmed, and
+   * {@link KeyedQuery keyed queries}.
+   */
+  QueryNormalizer DEFAULT = query -> {
+    if (query instanceof KeyedQuery) {
+      return ((KeyedQuery) query).getKey();
+    }
+
+    if (query instanceof String) {
+      return ((String) query).trim();
+    }
+
+    return null;
+  };
+
+  /**
+   * @param query The query.
+   * @return The key of the given query, implementing equals and
+   * hashCode, or null if its results can't be cached, e.g. plain
+   * predicates, which have no identity.
+   */
+  Object normalize(Object query);
+}
@@ -0,0 +1,74 @@
+package dev.emmily.sigma.api.query;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the ids matched by the most recently used queries,
+ * so their models can be resolved through the id cache.
+ * Results are discarded on every write, a generation counter
+ * keeps results computed during a write from being stored.
+ */
+public class QueryResultCache {
+  private final Map<Object, List<String>> results;
+  private long generation;
+
+  /**
+   * @param maxSize The maximum amount of cached results, the least
+   *                recently used ones are discarded first.
+   */
+  public QueryResultCache(int maxSize) {
+    this.results = new LinkedHashMap<Object, List<String>>(16, 0.75F, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Object, List<String>> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * @param query The normalized query.
+   * @param limit The limit of the query.
+   * @return The key of the result of the given query.
+   */
+  public static Object keyOf(
+    Object query,
+    int limit
+  ) {
+    return Arrays.asList(query, limit);
+  }
+
+  public synchronized List<String> get(Object key) {
+    return results.get(key);
+  }
+
+  /**
+   * @return The current generation, which must be read before
+   * running the query whose result is stored.
+   */
+  public synchronized long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Stores the given result, unless the cache was cleared since
+   * the given generation was read.
+   */
+  public synchronized void put(
+    Object key,
+    List<String> ids,
+    long generation
+  ) {
+    if (this.generation == generation) {
+      results.put(key, Collections.unmodifiableList(ids));
+    }
+  }
+
+  public synchronized void clear() {
+    generation++;
+    results.clear();
+  }
+}
@@ -1,9 +1,12 @@
 package dev.emmily.sigma.api.repository;
 
 import dev.emmily.sigma.api.Model;
+import dev.emmily.sigma.api.aggregation.Aggregation;
+import dev.emmily.sigma.api.aggregation.AggregationRow;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
@@ -40,6 +43,13 @@ public abstract class AsyncModelRepository<T extends Model>
     return runAsync(() -> create(model), executor);
   }
 
+  /**
+   * @see #createVersioned(Model)
+   */
+  public CompletableFuture<WriteResult> createVersionedAsync(T model) {
+    return supplyAsync(() -> createVersioned(model), executor);
+  }
+
   public CompletableFuture<Boolean> existsAsync(String id) {
     return supplyAsync(() -> exists(id), executor);
   }
@@ -48,6 +58,20 @@ public abstract class AsyncModelRepository<T extends Model>
     return existsAsync(model.getId());
   }
 
+  /**
+   * @see #existsMany(List)
+   */
+  public CompletableFuture<Set<String>> existsManyAsync(List<String> ids) {
+    return supplyAsync(() -> existsMany(ids), executor);
+  }
+
+  /**
+   * @see #existsMany(String...)
+   */
+  public CompletableFuture<Set<String>> existsManyAsync(String... ids) {
+    return existsManyAsync(Arrays.asList(ids));
+  }
+
   /**
    * @see #find(String) 
    */
@@ -113,6 +137,61 @@ public abstract class AsyncModelRepository<T extends Model>
     return findManyByQueryAsync(query, -1);
   }
 
+  /**
+   * @see #findIds(Object, int)
+   */
+  public CompletableFuture<List<String>> findIdsAsync(
+    Object query,
+    int limit
+  ) {
+    return supplyAsync(() -> findIds(query, limit), executor);
+  }
+
+  /**
+   * @see #findIds(Object)
+   */
+  public CompletableFuture<List<String>> findIdsAsync(Object query) {
+    return findIdsAsync(query, -1);
+  }
+
+  /**
+   * @see #count(Object, int)
+   */
+  public CompletableFuture<Long> countAsync(
+    Object query,
+    int limit
+  ) {
+    return supplyAsync(() -> count(query, limit), executor);
+  }
+
+  /**
+   * @see #count(Object)
+   */
+  public CompletableFuture<Long> countAsync(Object query) {
+    return countAsync(query, -1);
+  }
+
+  /**
+   * @see #findPage(Object, String, int)
+   */
+  public CompletableFuture<Page<T>> findPageAsync(
+    Object query,
+    String continuation,
+    int size
+  ) {
+    return supplyAsync(() -> findPage(query, continuation, size), executor);
+  }
+
+  /**
+   * @see #findPage(Object, int)
+   */
+  public CompletableFuture<Page<T>> findPageAsync(
+    Object query,
+    int size
+  ) {
+    return findPageAsync(query, null, size);
+  }
+
   /**
    * @see #findAll()
    */
@@ -120,6 +199,13 @@ public abstract class AsyncModelRepository<T extends Model>
     return supplyAsync(this::findAll, executor);
   }
 
+  /**
+   * @see #aggregate(Aggregation)
+   */
+  public CompletableFuture<List<AggregationRow>> aggregateAsync(Aggregation aggregation) {
+    return supplyAsync(() -> aggregate(aggregation), executor);
+  }
+
   /**
    * @see #delete(String)
    */
@@ -1,9 +1,20 @@
 package dev.emmily.sigma.api.repository;
 
 import dev.emmily.sigma.api.Model;
-
+import dev.emmily.sigma.api.invalidation.InvalidationBatcher;
+import dev.emmily.sigma.api.invalidation.InvalidationBus;
+import dev.emmily.sigma.api.invalidation.InvalidationListener;
+import dev.emmily.sigma.api.query.KeyedQuery;
+import dev.emmily.sigma.api.query.QueryNormalizer;
+import dev.emmily.sigma.api.query.QueryResultCache;
+
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 
@@ -13,7 +24,13 @@ import static java.util.concurrent.CompletableFuture.supplyAsync;
 public abstract class CachedAsyncModelRepository<T extends Model>
   extends AsyncModelRepository<T>
   implements ModelRepository<T>, CachedModelRepository<T> {
+  private final String nodeId = UUID.randomUUID().toString();
   private ModelRepository<T> cacheModelRepository;
+  private InvalidationBus invalidationBus;
+  private InvalidationListener invalidationListener;
+  private volatile InvalidationBatcher invalidationBatcher;
+  private volatile QueryResultCache queryResultCache;
+  private QueryNormalizer queryNormalizer = QueryNormalizer.DEFAULT;
 
   public CachedAsyncModelRepository(
     Executor executor,
@@ -75,9 +92,20 @@ public abstract class CachedAsyncModelRepository<T extends Model>
     return supplyAsync(() -> getOrFind(id), executor);
   }
 
+  /**
+   * Looks up the given query in the query result cache, if
+   * enabled, resolving the cached ids through the model cache.
+   * Otherwise, the query is forwarded to the cache repository.
+   */
   @Override
   public T getByQuery(Object query) {
-    return cacheModelRepository.findByQuery(query);
+    List<T> models = getCachedResult(query, 1);
+
+    if (models != null) {
+      return models.isEmpty() ? null : models.get(0);
+    }
+
+    return cacheModelRepository.findByQuery(KeyedQuery.unwrap(query));
   }
 
   /**
@@ -136,12 +164,21 @@ public abstract class CachedAsyncModelRepository<T extends Model>
     return getManyAsync(-1, ids);
   }
 
+  /**
+   * @see #getByQuery(Object)
+   */
   @Override
   public List<T> getManyByQuery(
     Object query,
     int limit
   ) {
-    return cacheModelRepository.findManyByQuery(query, limit);
+    List<T> models = getCachedResult(query, limit);
+
+    if (models != null) {
+      return models;
+    }
+
+    return cacheModelRepository.findManyByQuery(KeyedQuery.unwrap(query), limit);
   }
 
   /**
@@ -161,6 +198,208 @@ public abstract class CachedAsyncModelRepository<T extends Model>
     return getManyByQueryAsync(query, -1);
   }
 
+  /**
+   * Finds the given query in this repository, unless its result is
+   * in the query result cache. Found results are cached with their
+   * models, so the next calls don't reach this repository until a
+   * model of this type is written.
+   */
+  @Override
+  public T getOrFindByQuery(Object query) {
+    if (resultKeyOf(query, 1) == null) {
+      return CachedModelRepository.super.getOrFindByQuery(KeyedQuery.unwrap(query));
+    }
+
+    List<T> models = getOrFindManyByQuery(query, 1);
+
+    return models.isEmpty() ? null : models.get(0);
+  }
+
+  /**
+   * @see #getOrFindByQuery(Object)
+   */
+  @Override
+  public List<T> getOrFindManyByQuery(
+    Object query,
+    int limit
+  ) {
+    QueryResultCache resultCache = queryResultCache;
+    Object key = resultKeyOf(query, limit);
+
+    if (resultCache == null || key == null) {
+      return CachedModelRepository.super.getOrFindManyByQuery(KeyedQuery.unwrap(query), limit);
+    }
+
+    List<String> ids = resultCache.get(key);
+
+    if (ids != null) {
+      List<T> models = resolve(ids, true);
+
+      if (models != null) {
+        return models;
+      }
+    }
+
+    long generation = resultCache.getGeneration();
+    List<T> models = findManyByQuery(KeyedQuery.unwrap(query), limit);
+    List<String> foundIds = new ArrayList<>(models.size());
+
+    for (T model : models) {
+      cache(model);
+      foundIds.add(model.getId());
+    }
+
+    resultCache.put(key, foundIds, generation);
+
+    return models;
+  }
+
+  /**
+   * @see #getOrFindManyByQuery(Object, int)
+   */
+  public CompletableFuture<List<T>> getOrFindManyByQueryAsync(
+    Object query,
+    int limit
+  ) {
+    return supplyAsync(() -> getOrFindManyByQuery(query, limit), executor);
+  }
+
+  /**
+   * @see #getOrFindManyByQuery(Object)
+   */
+  public CompletableFuture<List<T>> getOrFindManyByQueryAsync(Object query) {
+    return getOrFindManyByQueryAsync(query, -1);
+  }
+
+  /**
+   * Resolves the cached result of the given query, or returns
+   * null if it isn't cached or some of its models aren't.
+   */
+  private List<T> getCachedResult(
+    Object query,
+    int limit
+  ) {
+    QueryResultCache resultCache = queryResultCache;
+    Object key = resultKeyOf(query, limit);
+
+    if (resultCache == null || key == null) {
+      return null;
+    }
+
+    List<String> ids = resultCache.get(key);
+
+    return ids == null ? null : resolve(ids, false);
+  }
+
+  /**
+   * @return The key of the cached result of the given query, or
+   * null if the query result cache is disabled or the query can't
+   * be normalized.
+   */
+  private Object resultKeyOf(
+    Object query,
+    int limit
+  ) {
+    if (queryResultCache == null) {
+      return null;
+    }
+
+    Object normalized = queryNormalizer.normalize(query);
+
+    return normalized == null ? null : QueryResultCache.keyOf(normalized, limit);
+  }
+
+  /**
+   * Resolves the given ids through the model cache, keeping
+   * their order.
+   *
+   * @param find Whether the models missing from the cache are
+   *             found in this repository, otherwise null is
+   *             returned if any model is missing.
+   */
+  private List<T> resolve(
+    List<String> ids,
+    boolean find
+  ) {
+    Map<String, T> cached = new HashMap<>();
+
+    for (T model : cacheModelRepository.findMany(ids)) {
+      cached.put(model.getId(), model);
+    }
+
+    if (cached.size() < ids.size()) {
+      if (!find) {
+        return null;
+      }
+
+      List<String> missing = new ArrayList<>();
+
+      for (String id : ids) {
+        if (!cached.containsKey(id)) {
+          missing.add(id);
+        }
+      }
+
+      for (T model : findMany(missing)) {
+        cache(model);
+        cached.put(model.getId(), model);
+      }
+    }
+
+    List<T> models = new ArrayList<>(ids.size());
+
+    for (String id : ids) {
+      T model = cached.get(id);
+
+      // skips the models deleted without passing through here
+      if (model != null) {
+        models.add(model);
+      }
+    }
+
+    return models;
+  }
+
+  /**
+   * Enables caching the ids matched by the queries made through
+   * {@link #getOrFindManyByQuery(Object, int)} and similar methods,
+   * so the same queries are answered from the model cache. Every
+   * write or invalidation clears the cached results, since any of
+   * them may be affected.
+   *
+   * @param maxSize The maximum amount of cached results.
+   * @see #setQueryNormalizer(QueryNormalizer)
+   */
+  public void enableQueryCache(int maxSize) {
+    this.queryResultCache = new QueryResultCache(maxSize);
+  }
+
+  public void disableQueryCache() {
+    this.queryResultCache = null;
+  }
+
+  /**
+   * Sets the normalizer identifying the cached query results,
+   * queries it can't normalize aren't cached. The default one
+   * only accepts Strings and {@link KeyedQuery keyed queries}.
+   */
+  public void setQueryNormalizer(QueryNormalizer queryNormalizer) {
+    this.queryNormalizer = queryNormalizer;
+  }
+
+  /**
+   * Discards every cached query result, must be called by the
+   * implementations when they learn about models changed outside
+   * of this repository.
+   */
+  public void invalidateQueries() {
+    QueryResultCache resultCache = queryResultCache;
+
+    if (resultCache != null) {
+      resultCache.clear();
+    }
+  }
+
   @Override
   public List<T> getAll() {
     return cacheModelRepository.findAll();
@@ -266,8 +505,102 @@ public abstract class CachedAsyncModelRepository<T extends Model>
     return deleteManyByQueryCachedAsync(query, -1);
   }
 
+  @Override
+  public void invalidate(String id) {
+    cacheModelRepository.delete(id);
+    invalidateQueries();
+  }
+
+  /**
+   * @see #invalidate(String)
+   */
+  public CompletableFuture<?> invalidateAsync(String id) {
+    return runAsync(() -> invalidate(id), executor);
+  }
+
+  @Override
+  public void invalidateMany(List<String> ids) {
+    cacheModelRepository.deleteMany(ids);
+    invalidateQueries();
+  }
+
+  /**
+   * @see #invalidateMany(List)
+   */
+  public CompletableFuture<?> invalidateManyAsync(List<String> ids) {
+    return runAsync(() -> invalidateMany(ids), executor);
+  }
+
   @Override
   public void setCacheRepository(ModelRepository<T> repository) {
     this.cacheModelRepository = repository;
   }
+
+  /**
+   * Links this repository to the given bus, so every model written
+   * or deleted through this repository is evicted from the caches of
+   * the other nodes linked to the same bus, and vice versa. The ids
+   * changed within the given delay are deduplicated and published
+   * together.
+   *
+   * @param bus         The shared bus, or null to unlink this repository.
+   * @param delayMillis The time changed ids are collected before being
+   *                    published.
+   */
+  public synchronized void setInvalidationBus(
+    InvalidationBus bus,
+    long delayMillis
+  ) {
+    if (invalidationBus != null) {
+      invalidationBatcher.flush();
+      invalidationBus.unsubscribe(invalidationListener);
+    }
+
+    this.invalidationBus = bus;
+
+    if (bus == null) {
+      this.invalidationListener = null;
+      this.invalidationBatcher = null;
+      return;
+    }
+
+    this.invalidationBatcher = new InvalidationBatcher(bus, nodeId, delayMillis);
+    this.invalidationListener = (origin, ids) -> {
+      if (nodeId.equals(origin)) {
+        return;
+      }
+
+      if (!ids.isEmpty()) {
+        invalidateMany(new ArrayList<>(ids));
+        return;
+      }
+
+      List<String> cachedIds = new ArrayList<>();
+
+      for (T model : getAll()) {
+        cachedIds.add(model.getId());
+      }
+
+      invalidateMany(cachedIds);
+    };
+    bus.subscribe(invalidationListener);
+  }
+
+  /**
+   * Must be called by the implementations every time models are
+   * written or deleted, so the linked caches are notified.
+   *
+   * @param ids The changed ids, or an empty collection if any
+   *            model may have changed.
+   * @see #setInvalidationBus(InvalidationBus, long)
+   */
+  protected void modelsChanged(Collection<String> ids) {
+    invalidateQueries();
+
+    InvalidationBatcher batcher = invalidationBatcher;
+
+    if (batcher != null) {
+      batcher.add(ids);
+    }
+  }
 }
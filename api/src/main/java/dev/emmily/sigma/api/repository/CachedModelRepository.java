@@ -3,6 +3,7 @@ package dev.emmily.sigma.api.repository;
 import dev.emmily.sigma.api.Model;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -79,6 +80,27 @@ public interface CachedModelRepository<T extends Model>
     return getManyByQuery(query, -1);
   }
 
+  /**
+   * Looks up the models matching the given query in the cache,
+   * finding them in the linked repository if there are none.
+   */
+  default List<T> getOrFindManyByQuery(
+    Object query,
+    int limit
+  ) {
+    List<T> models = getManyByQuery(query, limit);
+
+    if (models.isEmpty()) {
+      models = findManyByQuery(query, limit);
+    }
+
+    return models;
+  }
+
+  default List<T> getOrFindManyByQuery(Object query) {
+    return getOrFindManyByQuery(query, -1);
+  }
+
   List<T> getAll();
 
   void deleteCached(String id);
@@ -104,5 +126,31 @@ public interface CachedModelRepository<T extends Model>
     deleteManyByQueryCached(query, -1);
   }
 
+  /**
+   * Removes the model with the given id from the cache
+   * without writing it back to the linked repository,
+   * meant to discard cached copies known to be stale.
+   *
+   * @throws UnsupportedOperationException If this repository
+   *                                       can't evict models.
+   */
+  default void invalidate(String id) {
+    invalidateMany(Collections.singletonList(id));
+  }
+
+  /**
+   * @throws UnsupportedOperationException If this repository
+   *                                       can't evict models.
+   * @see #invalidate(String)
+   */
+  default void invalidateMany(List<String> ids) {
+    throw new UnsupportedOperationException(getClass().getSimpleName() +
+      " doesn't support invalidating models");
+  }
+
+  default void invalidateMany(String... ids) {
+    invalidateMany(Arrays.asList(ids));
+  }
+
   void setCacheRepository(ModelRepository<T> repository);
 }
@@ -1,9 +1,17 @@
 package dev.emmily.sigma.api.repository;
 
 import dev.emmily.sigma.api.Model;
+import dev.emmily.sigma.api.VersionedModel;
+import dev.emmily.sigma.api.aggregation.Aggregation;
+import dev.emmily.sigma.api.aggregation.AggregationRow;
+import dev.emmily.sigma.api.aggregation.InMemoryAggregator;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * ModelService is a Service Provider Interface
@@ -20,12 +28,63 @@ import java.util.List;
 public interface ModelRepository<T extends Model> {
   void create(T model);
 
+  /**
+   * Writes the given model only if the stored version is the version
+   * of the given model, 0 if it must not exist yet, incrementing the
+   * version of the model. The default implementation reads the stored
+   * model before writing, so it isn't atomic, the implementations
+   * should check the version and write in a single operation.
+   *
+   * @param model The model, which must be a {@link VersionedModel}.
+   * @return The result of the write, holding the new version if it
+   * was applied or the stored version if it wasn't.
+   */
+  default WriteResult createVersioned(T model) {
+    VersionedModel versioned = VersionedModel.of(model);
+    long expectedVersion = versioned.getVersion();
+    T current = find(model.getId());
+    long currentVersion = current == null ? 0 : VersionedModel.of(current).getVersion();
+
+    if (currentVersion != expectedVersion) {
+      return WriteResult.conflict(currentVersion);
+    }
+
+    versioned.setVersion(expectedVersion + 1);
+    create(model);
+
+    return WriteResult.applied(expectedVersion + 1);
+  }
+
   boolean exists(String id);
 
   default boolean exists(T model) {
     return exists(model.getId());
   }
 
+  /**
+   * Checks the existence of several models at once. The default
+   * implementation checks them one by one, the implementations
+   * should check them in a single operation.
+   *
+   * @param ids The checked ids.
+   * @return The given ids which exist.
+   */
+  default Set<String> existsMany(List<String> ids) {
+    Set<String> existing = new HashSet<>();
+
+    for (String id : ids) {
+      if (exists(id)) {
+        existing.add(id);
+      }
+    }
+
+    return existing;
+  }
+
+  default Set<String> existsMany(String... ids) {
+    return existsMany(Arrays.asList(ids));
+  }
+
   T find(String id);
 
   T findByQuery(Object query);
@@ -59,8 +118,109 @@ public interface ModelRepository<T extends Model> {
     return findManyByQuery(query, -1);
   }
 
+  /**
+   * Finds the ids of the models matching the given query. The
+   * default implementation loads the matching models, the
+   * implementations should avoid loading them.
+   *
+   * @param query The query.
+   * @param limit The maximum amount of ids, -1 means no limit.
+   */
+  default List<String> findIds(
+    Object query,
+    int limit
+  ) {
+    List<String> ids = new ArrayList<>();
+
+    for (T model : findManyByQuery(query, limit)) {
+      ids.add(model.getId());
+    }
+
+    return ids;
+  }
+
+  default List<String> findIds(Object query) {
+    return findIds(query, -1);
+  }
+
+  /**
+   * Counts the models matching the given query. The default
+   * implementation loads the matching models, the implementations
+   * should avoid loading them.
+   *
+   * @param query The query.
+   * @param limit The maximum amount of counted models, -1 means
+   *              no limit. Counting stops when it's reached, so
+   *              checking if at least n models match is cheap.
+   */
+  default long count(
+    Object query,
+    int limit
+  ) {
+    return findIds(query, limit).size();
+  }
+
+  default long count(Object query) {
+    return count(query, -1);
+  }
+
+  /**
+   * Finds a page of the models matching the given query, sorted
+   * by id unless the implementation states otherwise. The default
+   * implementation loads every matching model, the implementations
+   * should only read the models of the page.
+   *
+   * @param query        The query.
+   * @param continuation The token of the previous page, or null to
+   *                     find the first page.
+   * @param size         The maximum amount of models of the page.
+   * @see Page#getContinuation()
+   */
+  default Page<T> findPage(
+    Object query,
+    String continuation,
+    int size
+  ) {
+    String after = continuation == null ? null : Page.decodeContinuation(continuation);
+    List<T> models = new ArrayList<>();
+
+    for (T model : findManyByQuery(query)) {
+      if (after == null || model.getId().compareTo(after) > 0) {
+        models.add(model);
+      }
+    }
+
+    models.sort(Comparator.comparing(Model::getId));
+
+    return Page.byId(models, size);
+  }
+
+  default Page<T> findPage(
+    Object query,
+    int size
+  ) {
+    return findPage(query, null, size);
+  }
+
   List<T> findAll();
 
+  /**
+   * Computes the given aggregation over the models of this
+   * repository. The default implementation loads the matching
+   * models and aggregates them in memory, the implementations
+   * should aggregate them without loading them.
+   *
+   * @return A row per group.
+   */
+  default List<AggregationRow> aggregate(Aggregation aggregation) {
+    Object match = aggregation.getMatch();
+
+    return InMemoryAggregator.aggregate(
+      aggregation,
+      match == null ? findAll() : findManyByQuery(match)
+    );
+  }
+
   void delete(String id);
 
   default void delete(T model) {
@@ -0,0 +1,117 @@
+package dev.emmily.sigma.api.repository;
+
+import dev.emmily.sigma.api.Model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents a page of a query result obtained using keyset
+ * pagination, meaning the next page starts after the key of
+ * the last model of this one instead of skipping an offset.
+ * Pages are stable under concurrent writes, models created or
+ * deleted while paging never shift the following pages.
+ *
+ * @param <T> The type of the models of the page.
+ */
+public final class Page<T> {
+  private final List<T> items;
+  private final String continuation;
+
+  private Page(
+    List<T> items,
+    String continuation
+  ) {
+    this.items = items;
+    this.continuation = continuation;
+  }
+
+  /**
+   * @param items        The models of the page.
+   * @param continuation The opaque token of the next page, or
+   *                     null if this is the last page.
+   */
+  public static <T> Page<T> of(
+    List<T> items,
+    String continuation
+  ) {
+    return new Page<>(Collections.unmodifiableList(items), continuation);
+  }
+
+  /**
+   * Creates a page keyed by the model ids.
+   *
+   * @param models The candidates of the page sorted by id, one more
+   *               than the page size is enough to know if there's
+   *               a next page.
+   * @param size   The size of the page.
+   */
+  public static <T extends Model> Page<T> byId(
+    List<T> models,
+    int size
+  ) {
+    checkSize(size);
+
+    if (models.size() <= size) {
+      return of(models, null);
+    }
+
+    List<T> items = models.subList(0, size);
+
+    return of(items, encodeContinuation(items.get(size - 1).getId()));
+  }
+
+  /**
+   * @throws IllegalArgumentException If the given page size
+   *                                  isn't positive.
+   */
+  public static void checkSize(int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("Page size must be positive: " + size);
+    }
+  }
+
+  /**
+   * Encodes the given key into an opaque continuation token,
+   * safe to be used in URLs.
+   */
+  public static String encodeContinuation(String key) {
+    return Base64.getUrlEncoder()
+      .withoutPadding()
+      .encodeToString(key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @see #encodeContinuation(String)
+   */
+  public static String decodeContinuation(String continuation) {
+    try {
+      return new String(Base64.getUrlDecoder().decode(continuation), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid continuation token: " + continuation, e);
+    }
+  }
+
+  public List<T> getItems() {
+    return items;
+  }
+
+  /**
+   * @return The token of the next page, or null if this is
+   * the last page.
+   */
+  public String getContinuation() {
+    return continuation;
+  }
+
+  public boolean hasNext() {
+    return continuation != null;
+  }
+
+  @Override
+  public String toString() {
+    return "Page(size=" + items.size() + ", continuation=" + continuation + ")";
+  }
+}
@@ -0,0 +1,130 @@
+package dev.emmily.sigma.api.repository;
+
+import dev.emmily.sigma.api.Model;
+import dev.emmily.sigma.api.aggregation.Aggregation;
+import dev.emmily.sigma.api.aggregation.AggregationRow;
+import dev.emmily.sigma.api.aggregation.InMemoryAggregator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Implements the queries made with predicates over maps,
+ * for the in-memory repositories. Models are streamed from
+ * the values of the map without copying them.
+ */
+public final class PredicateMaps {
+  private PredicateMaps() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @see ModelRepository#findIds(Object, int)
+   */
+  public static <T extends Model> List<String> findIds(
+    Map<String, T> models,
+    Predicate<? super T> query,
+    int limit
+  ) {
+    List<String> ids = new ArrayList<>();
+
+    for (T model : models.values()) {
+      if (query.test(model)) {
+        if (limit-- == 0) {
+          break;
+        }
+
+        ids.add(model.getId());
+      }
+    }
+
+    return ids;
+  }
+
+  /**
+   * @see ModelRepository#count(Object, int)
+   */
+  public static <T extends Model> long count(
+    Map<String, T> models,
+    Predicate<? super T> query,
+    int limit
+  ) {
+    long count = 0;
+
+    for (T model : models.values()) {
+      if (query.test(model)) {
+        if (limit-- == 0) {
+          break;
+        }
+
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Finds a page of the models matching the given predicate,
+   * sorted by id, keeping only the models of the page in memory.
+   * Sorted maps are iterated from the continuation on.
+   *
+   * @see ModelRepository#findPage(Object, String, int)
+   */
+  public static <T extends Model> Page<T> findPage(
+    Map<String, T> models,
+    Predicate<? super T> query,
+    String continuation,
+    int size
+  ) {
+    Page.checkSize(size);
+
+    String after = continuation == null ? null : Page.decodeContinuation(continuation);
+    boolean sorted = models instanceof NavigableMap;
+    Collection<T> candidates = sorted && after != null
+      ? ((NavigableMap<String, T>) models).tailMap(after, false).values()
+      : models.values();
+    // keeps the lowest ids, one more than the page size
+    TreeMap<String, T> page = new TreeMap<>();
+
+    for (T model : candidates) {
+      if ((after == null || model.getId().compareTo(after) > 0) && query.test(model)) {
+        page.put(model.getId(), model);
+
+        if (page.size() > size + 1) {
+          page.pollLastEntry();
+        } else if (sorted && page.size() > size) {
+          break;
+        }
+      }
+    }
+
+    return Page.byId(new ArrayList<>(page.values()), size);
+  }
+
+  /**
+   * @param query The predicate matching the aggregated models,
+   *              null to aggregate every model.
+   * @see ModelRepository#aggregate(Aggregation)
+   */
+  public static <T extends Model> List<AggregationRow> aggregate(
+    Map<String, T> models,
+    Predicate<? super T> query,
+    Aggregation aggregation
+  ) {
+    InMemoryAggregator aggregator = new InMemoryAggregator(aggregation);
+
+    for (T model : models.values()) {
+      if (query == null || query.test(model)) {
+        aggregator.add(model);
+      }
+    }
+
+    return aggregator.getRows();
+  }
+}
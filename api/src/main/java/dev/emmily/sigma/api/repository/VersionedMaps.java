@@ -0,0 +1,55 @@
+package dev.emmily.sigma.api.repository;
+
+import dev.emmily.sigma.api.Model;
+import dev.emmily.sigma.api.VersionedModel;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implements versioned writes over maps, for the in-memory
+ * repositories. Writes are atomic if the map computes atomically,
+ * as ConcurrentHashMap and the maps of the Caffeine caches do.
+ */
+public final class VersionedMaps {
+  private VersionedMaps() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Puts the given model in the given map if the version of the
+   * model held by the map, 0 if it's missing, is the version of
+   * the given model, which is then incremented. The version is
+   * checked and the model is put in a single compute call, so the
+   * held model is never compared using its equals method. As the
+   * map holds the given instance, models must be copied before being
+   * changed, otherwise changes made to the held instance can't be
+   * detected.
+   *
+   * @see ModelRepository#createVersioned(Model)
+   */
+  public static <T extends Model> WriteResult compareAndSet(
+    Map<String, T> models,
+    T model
+  ) {
+    VersionedModel versioned = VersionedModel.of(model);
+    long expectedVersion = versioned.getVersion();
+    AtomicLong currentVersion = new AtomicLong();
+
+    models.compute(model.getId(), (id, current) -> {
+      currentVersion.set(current == null ? 0 : VersionedModel.of(current).getVersion());
+
+      if (currentVersion.get() != expectedVersion) {
+        return current;
+      }
+
+      versioned.setVersion(expectedVersion + 1);
+
+      return model;
+    });
+
+    return currentVersion.get() == expectedVersion
+      ? WriteResult.applied(expectedVersion + 1)
+      : WriteResult.conflict(currentVersion.get());
+  }
+}
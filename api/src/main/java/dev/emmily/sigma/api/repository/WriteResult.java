@@ -0,0 +1,57 @@
+package dev.emmily.sigma.api.repository;
+
+/**
+ * Represents the outcome of a conditional write, which is
+ * only applied if the stored version of the model is the
+ * expected one. Conflicts are reported through this result
+ * instead of exceptions, since they are expected under
+ * contention.
+ */
+public final class WriteResult {
+  private final boolean applied;
+  private final long version;
+
+  private WriteResult(
+    boolean applied,
+    long version
+  ) {
+    this.applied = applied;
+    this.version = version;
+  }
+
+  /**
+   * @param version The version of the written model.
+   */
+  public static WriteResult applied(long version) {
+    return new WriteResult(true, version);
+  }
+
+  /**
+   * @param currentVersion The version found instead of the
+   *                       expected one.
+   */
+  public static WriteResult conflict(long currentVersion) {
+    return new WriteResult(false, currentVersion);
+  }
+
+  public boolean isApplied() {
+    return applied;
+  }
+
+  public boolean isConflict() {
+    return !applied;
+  }
+
+  /**
+   * @return The new version of the model if the write was
+   * applied, otherwise the version currently stored.
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  @Override
+  public String toString() {
+    return (applied ? "applied" : "conflict") + "(version=" + version + ")";
+  }
+}
@@ -4,10 +4,18 @@ import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.CaffeineSpec;
 import dev.emmily.sigma.api.Model;
+import dev.emmily.sigma.api.aggregation.Aggregation;
+import dev.emmily.sigma.api.aggregation.AggregationRow;
 import dev.emmily.sigma.api.repository.ModelRepository;
+import dev.emmily.sigma.api.repository.Page;
+import dev.emmily.sigma.api.repository.PredicateMaps;
+import dev.emmily.sigma.api.repository.VersionedMaps;
+import dev.emmily.sigma.api.repository.WriteResult;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Predicate;
 
 public class CaffeineModelRepository<T extends Model>
@@ -34,11 +42,25 @@ public class CaffeineModelRepository<T extends Model>
     cache.put(model.getId(), model);
   }
 
+  /**
+   * Writes the given model with a compare-and-swap over the cache map,
+   * which is atomic if it's concurrent.
+   */
+  @Override
+  public WriteResult createVersioned(T model) {
+    return VersionedMaps.compareAndSet(cache.asMap(), model);
+  }
+
   @Override
   public boolean exists(String id) {
     return cache.getIfPresent(id) != null;
   }
 
+  @Override
+  public Set<String> existsMany(List<String> ids) {
+    return new HashSet<>(cache.getAllPresent(ids).keySet());
+  }
+
   @Override
   public T find(String id) {
     return cache.getIfPresent(id);
@@ -97,6 +119,47 @@ public class CaffeineModelRepository<T extends Model>
     return models;
   }
 
+  @Override
+  public List<String> findIds(
+    Object query,
+    int limit
+  ) {
+    return PredicateMaps.findIds(cache.asMap(), predicate(query), limit);
+  }
+
+  @Override
+  public long count(
+    Object query,
+    int limit
+  ) {
+    return PredicateMaps.count(cache.asMap(), predicate(query), limit);
+  }
+
+  /**
+   * Finds a page of the cached models matching the given predicate,
+   * sorted by id, keeping only the models of the page in memory.
+   */
+  @Override
+  public Page<T> findPage(
+    Object query,
+    String continuation,
+    int size
+  ) {
+    return PredicateMaps.findPage(cache.asMap(), predicate(query), continuation, size);
+  }
+
+  /**
+   * Aggregates the cached models matching the query of the given
+   * aggregation, which must be a predicate, streaming them
+   * without copying them.
+   */
+  @Override
+  public List<AggregationRow> aggregate(Aggregation aggregation) {
+    Object match = aggregation.getMatch();
+
+    return PredicateMaps.aggregate(cache.asMap(), match == null ? null : predicate(match), aggregation);
+  }
+
   @Override
   public List<T> findAll() {
     return new ArrayList<>(cache.asMap().values());
@@ -150,4 +213,13 @@ public class CaffeineModelRepository<T extends Model>
       }
     }
   }
+
+  @SuppressWarnings("unchecked")
+  private Predicate<T> predicate(Object query) {
+    if (!(query instanceof Predicate)) {
+      throw INVALID_QUERY;
+    }
+
+    return (Predicate<T>) query;
+  }
 }
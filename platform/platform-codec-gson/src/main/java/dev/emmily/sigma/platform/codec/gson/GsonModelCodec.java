@@ -1,6 +1,9 @@
 package dev.emmily.sigma.platform.codec.gson;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import dev.emmily.sigma.api.Model;
 import dev.emmily.sigma.api.codec.ModelCodec;
 import team.unnamed.reflect.identity.TypeReference;
@@ -11,6 +14,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class GsonModelCodec
   implements ModelCodec {
@@ -67,4 +72,29 @@ public class GsonModelCodec
       throw new RuntimeException(e);
     }
   }
+
+  @Override
+  public <T extends Model> Map<String, String> serializeAsMap(T model) {
+    Map<String, String> properties = new LinkedHashMap<>();
+
+    for (Map.Entry<String, JsonElement> entry : gson.toJsonTree(model).getAsJsonObject().entrySet()) {
+      properties.put(entry.getKey(), gson.toJson(entry.getValue()));
+    }
+
+    return properties;
+  }
+
+  @Override
+  public <T extends Model> T deserializeFromMap(
+    Map<String, String> source,
+    TypeReference<T> type
+  ) {
+    JsonObject object = new JsonObject();
+
+    for (Map.Entry<String, String> entry : source.entrySet()) {
+      object.add(entry.getKey(), JsonParser.parseString(entry.getValue()));
+    }
+
+    return gson.fromJson(object, type.getType());
+  }
 }
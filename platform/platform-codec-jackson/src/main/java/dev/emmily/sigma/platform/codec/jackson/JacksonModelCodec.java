@@ -1,12 +1,17 @@
 package dev.emmily.sigma.platform.codec.jackson;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import dev.emmily.sigma.api.Model;
 import dev.emmily.sigma.api.codec.ModelCodec;
 import team.unnamed.reflect.identity.TypeReference;
 
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class JacksonModelCodec
   implements ModelCodec {
@@ -68,4 +73,43 @@ public class JacksonModelCodec
       throw new RuntimeException(e);
     }
   }
+
+  @Override
+  public <T extends Model> Map<String, String> serializeAsMap(T model) {
+    ObjectNode node = objectMapper.valueToTree(model);
+    Map<String, String> properties = new LinkedHashMap<>();
+    Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+
+    try {
+      while (fields.hasNext()) {
+        Map.Entry<String, JsonNode> field = fields.next();
+        properties.put(field.getKey(), objectMapper.writeValueAsString(field.getValue()));
+      }
+    } catch (JsonProcessingException e) {
+      throw new RuntimeException(e);
+    }
+
+    return properties;
+  }
+
+  @Override
+  public <T extends Model> T deserializeFromMap(
+    Map<String, String> source,
+    TypeReference<T> type
+  ) {
+    ObjectNode node = objectMapper.createObjectNode();
+
+    try {
+      for (Map.Entry<String, String> entry : source.entrySet()) {
+        node.set(entry.getKey(), objectMapper.readTree(entry.getValue()));
+      }
+    } catch (JsonProcessingException e) {
+      throw new RuntimeException(e);
+    }
+
+    return objectMapper.convertValue(
+      node,
+      objectMapper.getTypeFactory().constructType(type.getType())
+    );
+  }
 }
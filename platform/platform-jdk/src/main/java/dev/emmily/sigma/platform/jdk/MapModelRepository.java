@@ -1,7 +1,13 @@
 package dev.emmily.sigma.platform.jdk;
 
 import dev.emmily.sigma.api.Model;
+import dev.emmily.sigma.api.aggregation.Aggregation;
+import dev.emmily.sigma.api.aggregation.AggregationRow;
 import dev.emmily.sigma.api.repository.ModelRepository;
+import dev.emmily.sigma.api.repository.Page;
+import dev.emmily.sigma.api.repository.PredicateMaps;
+import dev.emmily.sigma.api.repository.VersionedMaps;
+import dev.emmily.sigma.api.repository.WriteResult;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -42,6 +48,15 @@ public class MapModelRepository<T extends Model>
     modelRegistry.put(model.getId(), model);
   }
 
+  /**
+   * Writes the given model with a compare-and-swap over the map,
+   * which is atomic if it's concurrent.
+   */
+  @Override
+  public WriteResult createVersioned(T model) {
+    return VersionedMaps.compareAndSet(modelRegistry, model);
+  }
+
   @Override
   public boolean exists(String id) {
     return modelRegistry.containsKey(id);
@@ -117,6 +132,48 @@ public class MapModelRepository<T extends Model>
     return models;
   }
 
+  @Override
+  public List<String> findIds(
+    Object query,
+    int limit
+  ) {
+    return PredicateMaps.findIds(modelRegistry, predicate(query), limit);
+  }
+
+  @Override
+  public long count(
+    Object query,
+    int limit
+  ) {
+    return PredicateMaps.count(modelRegistry, predicate(query), limit);
+  }
+
+  /**
+   * Finds a page of the models matching the given predicate,
+   * sorted by id, keeping only the models of the page in memory.
+   * Sorted maps are iterated from the continuation on.
+   */
+  @Override
+  public Page<T> findPage(
+    Object query,
+    String continuation,
+    int size
+  ) {
+    return PredicateMaps.findPage(modelRegistry, predicate(query), continuation, size);
+  }
+
+  /**
+   * Aggregates the models matching the query of the given
+   * aggregation, which must be a predicate, streaming them
+   * without copying them.
+   */
+  @Override
+  public List<AggregationRow> aggregate(Aggregation aggregation) {
+    Object match = aggregation.getMatch();
+
+    return PredicateMaps.aggregate(modelRegistry, match == null ? null : predicate(match), aggregation);
+  }
+
   @Override
   public List<T> findAll() {
     return new ArrayList<>(modelRegistry.values());
@@ -172,4 +229,13 @@ public class MapModelRepository<T extends Model>
       }
     }
   }
+
+  @SuppressWarnings("unchecked")
+  private Predicate<T> predicate(Object query) {
+    if (!(query instanceof Predicate)) {
+      throw INVALID_QUERY;
+    }
+
+    return (Predicate<T>) query;
+  }
 }
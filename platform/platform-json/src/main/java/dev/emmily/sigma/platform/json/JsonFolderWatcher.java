@@ -0,0 +1,144 @@
+package dev.emmily.sigma.platform.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches a folder of model files using a {@link WatchService}
+ * and reports the ids of the created, modified and deleted
+ * files. Events are debounced, so bursts of events, such as
+ * the ones produced when a file is written in several steps,
+ * are reported once the folder has been quiet for the given
+ * debounce time, or after ten times that time if the folder
+ * never becomes quiet.
+ */
+public class JsonFolderWatcher
+  implements Closeable {
+  private final WatchService watchService;
+  private final String extension;
+  private final long debounceMillis;
+  private final Consumer<Set<String>> changeHandler;
+  private final Runnable overflowHandler;
+  private final Thread thread;
+
+  /**
+   * @param folder          The watched folder.
+   * @param extension       The extension of the model files.
+   * @param debounceMillis  The time the folder must be quiet before
+   *                        reporting the changes.
+   * @param changeHandler   The handler receiving the ids of the changed
+   *                        models.
+   * @param overflowHandler The handler called when the watch service lost
+   *                        events, so every model may have changed.
+   */
+  public JsonFolderWatcher(
+    Path folder,
+    String extension,
+    long debounceMillis,
+    Consumer<Set<String>> changeHandler,
+    Runnable overflowHandler
+  ) {
+    this.extension = extension;
+    this.debounceMillis = debounceMillis;
+    this.changeHandler = changeHandler;
+    this.overflowHandler = overflowHandler;
+
+    try {
+      this.watchService = FileSystems.getDefault().newWatchService();
+      folder.register(
+        watchService,
+        StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY,
+        StandardWatchEventKinds.ENTRY_DELETE
+      );
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    this.thread = new Thread(this::watch, "sigma-json-watcher-" + folder.getFileName());
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void watch() {
+    Set<String> changed = new LinkedHashSet<>();
+    long firstEvent = 0;
+    long lastEvent = 0;
+
+    try {
+      while (true) {
+        WatchKey key = changed.isEmpty()
+          ? watchService.take()
+          : watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+        long now = System.currentTimeMillis();
+
+        if (key != null) {
+          for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+              changed.clear();
+              handle(overflowHandler);
+              continue;
+            }
+
+            String name = event.context().toString();
+
+            if (!name.endsWith(extension)) {
+              continue;
+            }
+
+            if (changed.isEmpty()) {
+              firstEvent = now;
+            }
+
+            changed.add(name.substring(0, name.length() - extension.length()));
+            lastEvent = now;
+          }
+
+          key.reset();
+        }
+
+        if (!changed.isEmpty()
+          && (now - lastEvent >= debounceMillis || now - firstEvent >= debounceMillis * 10)) {
+          Set<String> ids = changed;
+          changed = new LinkedHashSet<>();
+
+          handle(() -> changeHandler.accept(ids));
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException ignored) {
+      // the watcher was closed
+    }
+  }
+
+  private void handle(Runnable handler) {
+    try {
+      handler.run();
+    } catch (RuntimeException e) {
+      // reported without stopping the watcher
+      Thread current = Thread.currentThread();
+      current.getUncaughtExceptionHandler().uncaughtException(current, e);
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      watchService.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    thread.interrupt();
+  }
+}
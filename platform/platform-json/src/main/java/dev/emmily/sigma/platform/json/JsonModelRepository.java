@@ -1,33 +1,66 @@
 package dev.emmily.sigma.platform.json;
 
 import dev.emmily.sigma.api.Model;
+import dev.emmily.sigma.api.VersionedModel;
 import dev.emmily.sigma.api.codec.ModelCodec;
 import dev.emmily.sigma.api.repository.CachedAsyncModelRepository;
 import dev.emmily.sigma.api.repository.ModelRepository;
+import dev.emmily.sigma.api.repository.Page;
+import dev.emmily.sigma.api.repository.WriteResult;
+import dev.emmily.sigma.platform.json.compression.FileCompression;
+import dev.emmily.sigma.platform.json.index.FileIndex;
+import dev.emmily.sigma.platform.json.index.IndexQuery;
 import team.unnamed.reflect.identity.TypeReference;
 
 import java.io.File;
-import java.io.FileFilter;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static java.util.concurrent.CompletableFuture.runAsync;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
 
 public class JsonModelRepository<T extends Model>
   extends CachedAsyncModelRepository<T>
   implements ModelRepository<T> {
-  private static final IllegalArgumentException INVALID_METHOD = new IllegalArgumentException(
-    "JsonModelService doesn't support query-based operations"
+  private static final IllegalArgumentException INVALID_QUERY = new IllegalArgumentException(
+    "JsonModelService only accepts queries of type Predicate<T extends Model> and IndexQuery"
   );
-  private static final FileFilter JSON_FILTER = pathname -> pathname.getName().endsWith(".json");
   private final ModelCodec modelCodec;
   private final File folder;
   private final TypeReference<T> type;
+  private Executor loadExecutor;
+  // the load executor created by this repository, if any
+  private ExecutorService ownedLoadExecutor;
+  private int loadParallelism = 1;
+  private FileCompression compression = FileCompression.none();
+  private boolean binary;
+  private String extension = ".json";
+  private final Map<String, FileIndex<T>> indexes = new ConcurrentHashMap<>();
+  private final Object versionLock = new Object();
 
   public JsonModelRepository(
     Executor executor,
@@ -62,37 +95,70 @@ public class JsonModelRepository<T extends Model>
   }
 
   @Override
-  @SuppressWarnings("all")
   public void create(T model) {
-    File file = new File(folder, model.getId() + ".json");
+    byte[] data = binary
+      ? modelCodec.serializeAsBytes(model)
+      : modelCodec.serializeAsString(model).getBytes(StandardCharsets.UTF_8);
 
-    if (file.exists() && !file.delete()) {
-      throw new RuntimeException("Unable to delete the container file of the " +
-        "model " + model.getId());
-    }
+    writeToFile(file(model.getId()), compression.encode(data));
 
-    try {
-      file.createNewFile();
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+    for (FileIndex<T> index : indexes.values()) {
+      index.update(model);
     }
 
-    try (FileWriter writer = new FileWriter(file)) {
-      writer.write(modelCodec.serializeAsString(model));
-      writer.flush();
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+    modelsChanged(Collections.singletonList(model.getId()));
+  }
+
+  /**
+   * Writes the given model if the version of its file is the
+   * version of the model, checking and writing under a lock, so
+   * versioned writes are atomic within this repository. Other
+   * processes sharing the folder and unversioned writes aren't
+   * checked against.
+   */
+  @Override
+  public WriteResult createVersioned(T model) {
+    VersionedModel versioned = VersionedModel.of(model);
+    long expectedVersion = versioned.getVersion();
+
+    synchronized (versionLock) {
+      File file = file(model.getId());
+      long currentVersion = file.exists()
+        ? VersionedModel.of(readFromFile(file)).getVersion()
+        : 0;
+
+      if (currentVersion != expectedVersion) {
+        return WriteResult.conflict(currentVersion);
+      }
+
+      versioned.setVersion(expectedVersion + 1);
+      create(model);
     }
+
+    return WriteResult.applied(expectedVersion + 1);
   }
 
   @Override
   public boolean exists(String id) {
-    return new File(folder, id + ".json").exists();
+    return file(id).exists();
+  }
+
+  @Override
+  public Set<String> existsMany(List<String> ids) {
+    Set<String> existing = new HashSet<>();
+
+    for (String id : ids) {
+      if (file(id).exists()) {
+        existing.add(id);
+      }
+    }
+
+    return existing;
   }
 
   @Override
   public T find(String id) {
-    File file = new File(folder, id + ".json");
+    File file = file(id);
 
     if (!file.exists()) {
       return null;
@@ -103,7 +169,9 @@ public class JsonModelRepository<T extends Model>
 
   @Override
   public T findByQuery(Object query) {
-    throw INVALID_METHOD;
+    List<T> models = findManyByQuery(query, 1);
+
+    return models.isEmpty() ? null : models.get(0);
   }
 
   @Override
@@ -111,86 +179,193 @@ public class JsonModelRepository<T extends Model>
     List<String> ids,
     int limit
   ) {
-    File[] files = folder.listFiles(pathname -> {
-      if (!JSON_FILTER.accept(pathname)) {
-        return false;
+    List<File> files = new ArrayList<>();
+
+    for (String id : ids) {
+      File file = file(id);
+
+      if (file.exists()) {
+        files.add(file);
       }
+    }
 
-      return ids.contains(pathname
-        .getName()
-        .replace(".json", "")
-      );
+    List<T> models = new ArrayList<>();
+    readFiles(files, limit, model -> {
+      models.add(model);
+      return true;
     });
 
-    if (files == null) {
-      return Collections.emptyList();
-    }
+    return models;
+  }
 
+  @Override
+  public List<T> findManyByQuery(
+    Object query,
+    int limit
+  ) {
     List<T> models = new ArrayList<>();
 
-    for (File file : files) {
-      if (limit-- == 0) {
-        break;
+    if (limit == 0) {
+      return models;
+    }
+
+    Predicate<T> filter = toFilter(query);
+    readFiles(queryFiles(query), -1, model -> {
+      if (!filter.test(model)) {
+        return true;
       }
 
-      models.add(readFromFile(file));
-    }
+      models.add(model);
+
+      return models.size() != limit;
+    });
 
     return models;
   }
 
+  /**
+   * Finds the ids of the models matching the given query. The
+   * ids matching an {@link IndexQuery} are read from the index
+   * without reading the files of the models, while predicates
+   * still have to read every file.
+   */
   @Override
-  public List<T> findManyByQuery(
+  public List<String> findIds(
     Object query,
     int limit
   ) {
-    throw INVALID_METHOD;
+    List<String> ids = new ArrayList<>();
+
+    if (limit == 0) {
+      return ids;
+    }
+
+    if (query instanceof IndexQuery) {
+      for (File file : queryFiles(query)) {
+        ids.add(idOf(file));
+
+        if (ids.size() == limit) {
+          break;
+        }
+      }
+
+      return ids;
+    }
+
+    for (T model : findManyByQuery(query, limit)) {
+      ids.add(model.getId());
+    }
+
+    return ids;
   }
 
+  /**
+   * Finds a page of the models matching the given query, sorted
+   * by id. Only the file names are listed for the models before
+   * the continuation, and files are read until the page is full.
+   */
   @Override
-  public List<T> findAll() {
-    File[] files = folder.listFiles(JSON_FILTER);
+  public Page<T> findPage(
+    Object query,
+    String continuation,
+    int size
+  ) {
+    Page.checkSize(size);
 
-    if (files == null) {
-      return Collections.emptyList();
+    String after = continuation == null ? null : Page.decodeContinuation(continuation);
+    Predicate<T> filter = toFilter(query);
+    List<File> files = new ArrayList<>();
+
+    for (File file : queryFiles(query)) {
+      if (after == null || idOf(file).compareTo(after) > 0) {
+        files.add(file);
+      }
     }
 
+    files.sort(Comparator.comparing(this::idOf));
+
     List<T> models = new ArrayList<>();
+    readFiles(files, -1, model -> {
+      if (filter.test(model)) {
+        models.add(model);
+      }
 
-    for (File file : files) {
-      models.add(readFromFile(file));
-    }
+      // one more than the page size tells if there's a next page
+      return models.size() <= size;
+    });
+
+    return Page.byId(models, size);
+  }
+
+  @Override
+  public List<T> findAll() {
+    List<T> models = new ArrayList<>();
+    streamAll(models::add);
 
     return models;
   }
 
+  /**
+   * Reads every model held by this repository and
+   * hands it to the given consumer as soon as it has
+   * been decoded, so callers don't need to keep the
+   * whole folder in memory. Models are delivered in
+   * the same order as the folder listing, and always
+   * on the calling thread.
+   *
+   * @param consumer The consumer receiving the models.
+   * @see #setLoadParallelism(int, Executor)
+   */
+  public void streamAll(Consumer<? super T> consumer) {
+    File[] files = folder.listFiles(this::isModelFile);
+
+    if (files == null) {
+      return;
+    }
+
+    readFiles(Arrays.asList(files), -1, model -> {
+      consumer.accept(model);
+      return true;
+    });
+  }
+
+  /**
+   * @see #streamAll(Consumer)
+   */
+  public CompletableFuture<?> streamAllAsync(Consumer<? super T> consumer) {
+    return runAsync(() -> streamAll(consumer), executor);
+  }
+
   @Override
   public void delete(String id) {
-    File file = new File(folder, id + ".json");
+    File file = file(id);
 
     if (file.exists() && !file.delete()) {
       throw new RuntimeException("Unable to delete the container file of the " +
         "model " + id);
     }
+
+    for (FileIndex<T> index : indexes.values()) {
+      index.remove(id);
+    }
+
+    modelsChanged(Collections.singletonList(id));
   }
 
   @Override
   public void deleteByQuery(Object query) {
-    throw INVALID_METHOD;
+    deleteManyByQuery(query, 1);
   }
 
   @Override
   @SuppressWarnings("all")
   public void deleteMany(List<String> ids) {
     File[] files = folder.listFiles(pathname -> {
-      if (!JSON_FILTER.accept(pathname)) {
+      if (!isModelFile(pathname)) {
         return false;
       }
 
-      return ids.contains(pathname
-        .getName()
-        .replace(".json", "")
-      );
+      return ids.contains(idOf(pathname));
     });
 
     if (files == null) {
@@ -199,8 +374,13 @@ public class JsonModelRepository<T extends Model>
 
     for (File file : files) {
       file.delete();
+
+      for (FileIndex<T> index : indexes.values()) {
+        index.remove(idOf(file));
+      }
     }
 
+    modelsChanged(ids);
   }
 
   @Override
@@ -208,17 +388,407 @@ public class JsonModelRepository<T extends Model>
     Object query,
     int limit
   ) {
-    throw INVALID_METHOD;
+    for (T model : findManyByQuery(query, limit)) {
+      delete(model.getId());
+    }
   }
 
-  private T readFromFile(File file) {
+  /**
+   * Declares a secondary index over the value extracted from
+   * the models by the given function. Indexes are persisted in
+   * the ".indexes" folder placed inside the folder of this
+   * repository and updated on every write, if the index doesn't
+   * exist yet, or it's stale because the files were modified
+   * without updating it, it's built from the stored models. Queries made
+   * with {@link IndexQuery} only read the files of the models
+   * matching them.
+   *
+   * @param name      The name of the index.
+   * @param extractor The function extracting the indexed value,
+   *                  compared using its string representation.
+   */
+  public void addIndex(
+    String name,
+    Function<? super T, ?> extractor
+  ) {
+    FileIndex<T> index = new FileIndex<>(
+      name,
+      extractor,
+      new File(folder, ".indexes")
+    );
+
+    index.load();
+
+    if (!index.isPersisted() || !index.isCoherent(modelFiles())) {
+      reconcile(Collections.singletonList(index));
+    }
+
+    indexes.put(name, index);
+  }
+
+  /**
+   * Updates the given indexes with every stored model and
+   * removes the entries of the models without a file.
+   */
+  private void reconcile(Collection<FileIndex<T>> targets) {
+    Set<String> ids = new HashSet<>();
+
+    streamAll(model -> {
+      ids.add(model.getId());
+
+      for (FileIndex<T> index : targets) {
+        index.update(model);
+      }
+    });
+
+    for (FileIndex<T> index : targets) {
+      index.retain(ids);
+      index.compact();
+    }
+  }
+
+  private Map<String, File> modelFiles() {
+    File[] files = folder.listFiles(this::isModelFile);
+    Map<String, File> filesById = new HashMap<>();
+
+    if (files != null) {
+      for (File file : files) {
+        filesById.put(idOf(file), file);
+      }
+    }
+
+    return filesById;
+  }
+
+  /**
+   * Starts watching the folder of this repository for changes
+   * made by other processes or by hand, so the cache stays
+   * coherent with the files. The indexes of this repository
+   * are updated with the changed files, while cached models
+   * are either reloaded from their files or invalidated.
+   * Models that aren't cached aren't loaded. Lost events
+   * cause the indexes to be rebuilt from the files and every
+   * cached model to be refreshed.
+   *
+   * @param debounceMillis The time the folder must be quiet before
+   *                       the changes are applied.
+   * @param reload         Whether cached models should be reloaded,
+   *                       instead of invalidated.
+   * @return The watcher, which must be closed to stop watching.
+   */
+  public JsonFolderWatcher watch(
+    long debounceMillis,
+    boolean reload
+  ) {
+    return new JsonFolderWatcher(
+      folder.toPath(),
+      extension,
+      debounceMillis,
+      ids -> {
+        invalidateQueries();
+        ids.forEach(id -> refresh(id, reload));
+      },
+      () -> {
+        invalidateQueries();
+        reconcile(indexes.values());
+        getAll().forEach(model -> refresh(model.getId(), reload));
+      }
+    );
+  }
+
+  private void refresh(
+    String id,
+    boolean reload
+  ) {
+    File file = file(id);
+
+    if (!file.exists()) {
+      for (FileIndex<T> index : indexes.values()) {
+        index.remove(id);
+      }
+
+      invalidate(id);
+      return;
+    }
+
+    boolean cached = existsCached(id);
+
+    if (indexes.isEmpty() && !(cached && reload)) {
+      if (cached) {
+        invalidate(id);
+      }
+
+      return;
+    }
+
+    T model;
+
     try {
-      return modelCodec.deserializeFromString(String.join(
-        "\n",
-        Files.readAllLines(Paths.get(file.getPath()))
-      ), type);
+      model = readFromFile(file);
+    } catch (RuntimeException e) {
+      // the file may be partially written, the next event will fix it
+      invalidate(id);
+      return;
+    }
+
+    for (FileIndex<T> index : indexes.values()) {
+      index.update(model);
+    }
+
+    if (!cached) {
+      return;
+    }
+
+    if (reload) {
+      cache(model);
+    } else {
+      invalidate(id);
+    }
+  }
+
+  /**
+   * Sets the compression applied to the files written
+   * from now on. Files are read according to their own
+   * header, so existing files remain readable whatever
+   * compression was used to write them.
+   *
+   * @param compression The compression of the written files.
+   */
+  public void setCompression(FileCompression compression) {
+    this.compression = compression;
+  }
+
+  /**
+   * Selects how models are encoded in their files. The
+   * string mode stores the UTF-8 output of
+   * {@link ModelCodec#serializeAsString(Model)}, while the
+   * binary mode stores the output of
+   * {@link ModelCodec#serializeAsBytes(Model)} as is, skipping
+   * the char encoding and decoding and allowing the usage of
+   * binary codecs. Both modes write and read the files through
+   * NIO channels.
+   *
+   * @param binary    Whether the binary mode should be used.
+   * @param extension The extension of the model files, including
+   *                  the leading dot, e.g. ".bin".
+   */
+  public void setPayloadMode(
+    boolean binary,
+    String extension
+  ) {
+    this.binary = binary;
+    this.extension = extension;
+  }
+
+  /**
+   * Enables parallel loading for bulk reads ({@link #findAll()},
+   * {@link #findMany(List, int)} and {@link #streamAll(Consumer)}).
+   * At most {@code parallelism} files are read and decoded at
+   * the same time using the given executor, so file I/O of a
+   * model overlaps with the decoding of the others. Don't use
+   * the executor of this repository if it's single-threaded,
+   * as async bulk reads would wait for themselves.
+   *
+   * @param parallelism The maximum amount of files being loaded
+   *                    at the same time, 1 disables parallel loading.
+   * @param loadExecutor The executor loading the files.
+   */
+  public void setLoadParallelism(
+    int parallelism,
+    Executor loadExecutor
+  ) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("The load parallelism must be at least 1");
+    }
+
+    this.loadParallelism = parallelism;
+    this.loadExecutor = loadExecutor;
+
+    if (ownedLoadExecutor != null && ownedLoadExecutor != loadExecutor) {
+      // the loads already submitted to it are completed
+      ownedLoadExecutor.shutdown();
+      ownedLoadExecutor = null;
+    }
+  }
+
+  /**
+   * Enables parallel loading using a pool of daemon threads owned
+   * by this repository, which is shut down when the parallelism
+   * is changed again.
+   *
+   * @see #setLoadParallelism(int, Executor)
+   */
+  public void setLoadParallelism(int parallelism) {
+    ExecutorService executor = parallelism <= 1 ? null : Executors.newFixedThreadPool(parallelism, runnable -> {
+      Thread thread = new Thread(runnable, "sigma-json-loader");
+      thread.setDaemon(true);
+      return thread;
+    });
+    setLoadParallelism(parallelism, executor);
+    this.ownedLoadExecutor = executor;
+  }
+
+  private List<File> queryFiles(Object query) {
+    if (!(query instanceof IndexQuery)) {
+      File[] files = folder.listFiles(this::isModelFile);
+
+      return files == null ? Collections.emptyList() : Arrays.asList(files);
+    }
+
+    IndexQuery indexQuery = (IndexQuery) query;
+    FileIndex<T> index = indexes.get(indexQuery.getIndex());
+
+    if (index == null) {
+      throw new IllegalArgumentException("Unknown index " + indexQuery.getIndex());
+    }
+
+    List<File> files = new ArrayList<>();
+
+    for (String id : index.lookup(indexQuery.getValue())) {
+      File file = file(id);
+
+      if (file.exists()) {
+        files.add(file);
+      }
+    }
+
+    return files;
+  }
+
+  private Predicate<T> toFilter(Object query) {
+    if (query instanceof Predicate) {
+      @SuppressWarnings("unchecked")
+      Predicate<T> modelQuery = (Predicate<T>) query;
+
+      return modelQuery;
+    }
+
+    if (query instanceof IndexQuery) {
+      IndexQuery indexQuery = (IndexQuery) query;
+      FileIndex<T> index = indexes.get(indexQuery.getIndex());
+
+      // re-checked in case the file changed without passing through here
+      return model -> index != null && indexQuery.getValue().equals(index.valueOf(model));
+    }
+
+    throw INVALID_QUERY;
+  }
+
+  /**
+   * Reads the given files, handing the models to the given
+   * consumer in order until it returns false.
+   */
+  private void readFiles(
+    List<File> files,
+    int limit,
+    Predicate<? super T> consumer
+  ) {
+    if (loadParallelism == 1) {
+      for (File file : files) {
+        if (limit-- == 0) {
+          break;
+        }
+
+        if (!consumer.test(readFromFile(file))) {
+          return;
+        }
+      }
+
+      return;
+    }
+
+    // keeps a bounded window of in-flight reads, joined in
+    // submission order so the listing order is preserved
+    Deque<CompletableFuture<T>> pending = new ArrayDeque<>();
+
+    for (File file : files) {
+      if (limit-- == 0) {
+        break;
+      }
+
+      if (pending.size() == loadParallelism && !consumer.test(join(pending.poll()))) {
+        return;
+      }
+
+      pending.add(supplyAsync(() -> readFromFile(file), loadExecutor));
+    }
+
+    while (!pending.isEmpty()) {
+      if (!consumer.test(join(pending.poll()))) {
+        return;
+      }
+    }
+  }
+
+  private T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+
+      throw e;
+    }
+  }
+
+  private File file(String id) {
+    return new File(folder, id + extension);
+  }
+
+  private boolean isModelFile(File file) {
+    return file.getName().endsWith(extension);
+  }
+
+  private String idOf(File file) {
+    String name = file.getName();
+
+    return name.substring(0, name.length() - extension.length());
+  }
+
+  private void writeToFile(
+    File file,
+    byte[] data
+  ) {
+    try (FileChannel channel = FileChannel.open(
+      file.toPath(),
+      StandardOpenOption.CREATE,
+      StandardOpenOption.WRITE,
+      StandardOpenOption.TRUNCATE_EXISTING
+    )) {
+      ByteBuffer buffer = ByteBuffer.wrap(data);
+
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
+
+  private T readFromFile(File file) {
+    byte[] data;
+
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+
+      while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+        // keep reading until the buffer is full or the file ends
+      }
+
+      data = buffer.position() == buffer.capacity()
+        ? buffer.array()
+        : Arrays.copyOf(buffer.array(), buffer.position());
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    data = compression.decode(data);
+
+    if (binary) {
+      return modelCodec.deserializeFromBytes(data, type);
+    }
+
+    return modelCodec.deserializeFromString(new String(data, StandardCharsets.UTF_8), type);
+  }
 }
@@ -0,0 +1,79 @@
+package dev.emmily.sigma.platform.json.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link ModelCompressor} using the raw DEFLATE
+ * format through the JDK {@link Deflater} and
+ * {@link Inflater}.
+ */
+public class DeflateModelCompressor
+  implements ModelCompressor {
+  public static final byte ID = 1;
+  private final int level;
+
+  public DeflateModelCompressor(int level) {
+    this.level = level;
+  }
+
+  public DeflateModelCompressor() {
+    this(Deflater.DEFAULT_COMPRESSION);
+  }
+
+  @Override
+  public byte getId() {
+    return ID;
+  }
+
+  @Override
+  public byte[] compress(byte[] source) {
+    Deflater deflater = new Deflater(level, true);
+
+    try {
+      deflater.setInput(source);
+      deflater.finish();
+
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream(source.length / 2 + 16);
+      byte[] buffer = new byte[4096];
+
+      while (!deflater.finished()) {
+        outputStream.write(buffer, 0, deflater.deflate(buffer));
+      }
+
+      return outputStream.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  @Override
+  public byte[] decompress(byte[] source) {
+    Inflater inflater = new Inflater(true);
+
+    try {
+      inflater.setInput(source);
+
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream(source.length * 4);
+      byte[] buffer = new byte[4096];
+
+      while (!inflater.finished()) {
+        int read = inflater.inflate(buffer);
+
+        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new RuntimeException("Truncated DEFLATE data");
+        }
+
+        outputStream.write(buffer, 0, read);
+      }
+
+      return outputStream.toByteArray();
+    } catch (DataFormatException e) {
+      throw new RuntimeException(e);
+    } finally {
+      inflater.end();
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package dev.emmily.sigma.platform.json.compression;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Handles the compression of the files written by a
+ * file-based repository. Compressed files start with
+ * a header made of a magic sequence followed by the
+ * id of the {@link ModelCompressor} used, so files
+ * without it are read as they are. Uncompressed payloads
+ * which start with the magic sequence, e.g. in binary
+ * mode, are written with a header holding the reserved
+ * id 0, so a header is never mistaken for a payload. This
+ * allows compressed and uncompressed files to coexist in
+ * the same folder, and the compressor to be changed at
+ * any time.
+ */
+public class FileCompression {
+  // a leading NUL byte can't be the start of a JSON document
+  private static final byte[] MAGIC = {0, 'S', 'Z'};
+  private static final int HEADER_LENGTH = MAGIC.length + 1;
+  // the id of the header of uncompressed payloads
+  private static final byte STORED = 0;
+  private final Map<Byte, ModelCompressor> compressors = new ConcurrentHashMap<>();
+  private final ModelCompressor compressor;
+  private final int threshold;
+
+  /**
+   * @param compressor The compressor used when writing, or
+   *                   null to write every file uncompressed.
+   * @param threshold  The minimum size in bytes of a payload
+   *                   to be compressed, smaller payloads are
+   *                   written raw.
+   */
+  public FileCompression(
+    ModelCompressor compressor,
+    int threshold
+  ) {
+    this.compressor = compressor;
+    this.threshold = threshold;
+    register(new DeflateModelCompressor());
+    register(new GzipModelCompressor());
+
+    if (compressor != null) {
+      register(compressor);
+    }
+  }
+
+  public static FileCompression none() {
+    return new FileCompression(null, Integer.MAX_VALUE);
+  }
+
+  public static FileCompression deflate(int threshold) {
+    return new FileCompression(new DeflateModelCompressor(), threshold);
+  }
+
+  public static FileCompression gzip(int threshold) {
+    return new FileCompression(new GzipModelCompressor(), threshold);
+  }
+
+  /**
+   * Registers the given compressor so files written with
+   * it can be read, even if it's not the one used to write.
+   */
+  public void register(ModelCompressor compressor) {
+    if (compressor.getId() == STORED) {
+      throw new IllegalArgumentException("The compressor id 0 is reserved for uncompressed files");
+    }
+
+    compressors.put(compressor.getId(), compressor);
+  }
+
+  public byte[] encode(byte[] source) {
+    if (compressor == null || source.length < threshold) {
+      return store(source);
+    }
+
+    byte[] compressed = compressor.compress(source);
+
+    if (compressed.length + HEADER_LENGTH >= source.length) {
+      return store(source);
+    }
+
+    return withHeader(compressor.getId(), compressed);
+  }
+
+  private static byte[] store(byte[] source) {
+    return hasHeader(source) ? withHeader(STORED, source) : source;
+  }
+
+  private static byte[] withHeader(
+    byte id,
+    byte[] payload
+  ) {
+    byte[] encoded = new byte[payload.length + HEADER_LENGTH];
+    System.arraycopy(MAGIC, 0, encoded, 0, MAGIC.length);
+    encoded[MAGIC.length] = id;
+    System.arraycopy(payload, 0, encoded, HEADER_LENGTH, payload.length);
+
+    return encoded;
+  }
+
+  public byte[] decode(byte[] source) {
+    if (!hasHeader(source)) {
+      return source;
+    }
+
+    if (source[MAGIC.length] == STORED) {
+      return Arrays.copyOfRange(source, HEADER_LENGTH, source.length);
+    }
+
+    ModelCompressor compressor = compressors.get(source[MAGIC.length]);
+
+    if (compressor == null) {
+      throw new IllegalStateException("Unknown compressor with id " + source[MAGIC.length]);
+    }
+
+    return compressor.decompress(Arrays.copyOfRange(source, HEADER_LENGTH, source.length));
+  }
+
+  public static boolean isCompressed(byte[] source) {
+    return hasHeader(source) && source[MAGIC.length] != STORED;
+  }
+
+  private static boolean hasHeader(byte[] source) {
+    if (source.length < HEADER_LENGTH) {
+      return false;
+    }
+
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (source[i] != MAGIC[i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,53 @@
+package dev.emmily.sigma.platform.json.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A {@link ModelCompressor} using the GZIP format,
+ * which makes the payload of the stored files
+ * readable by standard tools.
+ */
+public class GzipModelCompressor
+  implements ModelCompressor {
+  public static final byte ID = 2;
+
+  @Override
+  public byte getId() {
+    return ID;
+  }
+
+  @Override
+  public byte[] compress(byte[] source) {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream(source.length / 2 + 32);
+
+    try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+      gzipOutputStream.write(source);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    return outputStream.toByteArray();
+  }
+
+  @Override
+  public byte[] decompress(byte[] source) {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream(source.length * 4);
+
+    try (GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(source))) {
+      byte[] buffer = new byte[4096];
+      int read;
+
+      while ((read = gzipInputStream.read(buffer)) != -1) {
+        outputStream.write(buffer, 0, read);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    return outputStream.toByteArray();
+  }
+}
@@ -0,0 +1,22 @@
+package dev.emmily.sigma.platform.json.compression;
+
+/**
+ * Represents a compression algorithm used to shrink
+ * the stored representation of a model. Every
+ * compressor is identified by a unique id, which
+ * is written in the header of the compressed files
+ * so the algorithm can be resolved when reading
+ * them back.
+ */
+public interface ModelCompressor {
+  /**
+   * @return The unique id of this compressor, ids
+   * between 0 and 15 are reserved for the built-in
+   * compressors.
+   */
+  byte getId();
+
+  byte[] compress(byte[] source);
+
+  byte[] decompress(byte[] source);
+}
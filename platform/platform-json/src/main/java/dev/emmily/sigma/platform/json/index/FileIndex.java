@@ -0,0 +1,285 @@
+package dev.emmily.sigma.platform.json.index;
+
+import dev.emmily.sigma.api.Model;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A secondary index mapping the value of a field of the
+ * models to the ids of the models holding it. Indexes
+ * are persisted as an append-only journal, where every
+ * line either sets the value of a model or removes it,
+ * which is compacted when loaded if it grew too much.
+ * The journal is touched on every write, even if the
+ * index didn't change, so model files modified after
+ * it were written without updating the index.
+ *
+ * @param <T> The type of model indexed.
+ */
+public class FileIndex<T extends Model> {
+  private final String name;
+  private final Function<? super T, ?> extractor;
+  private final File file;
+  private final Map<String, String> valueById = new HashMap<>();
+  private final Map<String, Set<String>> idsByValue = new HashMap<>();
+  private long journalLength;
+  private long journalModified;
+
+  /**
+   * @param name      The name of the index.
+   * @param extractor The function extracting the indexed value
+   *                  of a model, null values aren't indexed.
+   * @param folder    The folder where the journal is stored.
+   */
+  public FileIndex(
+    String name,
+    Function<? super T, ?> extractor,
+    File folder
+  ) {
+    this.name = name;
+    this.extractor = extractor;
+    this.file = new File(folder, name + ".index");
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return Whether the journal of this index exists,
+   * otherwise it must be built from the stored models.
+   */
+  public boolean isPersisted() {
+    return file.exists();
+  }
+
+  public synchronized void load() {
+    valueById.clear();
+    idsByValue.clear();
+    journalLength = 0;
+    journalModified = file.lastModified();
+
+    if (!file.exists()) {
+      return;
+    }
+
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+
+      while ((line = reader.readLine()) != null) {
+        journalLength++;
+        int separator = line.indexOf('\t');
+
+        if (separator == -1) {
+          unlink(decode(line));
+        } else {
+          link(decode(line.substring(0, separator)), decode(line.substring(separator + 1)));
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    if (journalLength > valueById.size() * 2L) {
+      compact();
+    }
+  }
+
+  /**
+   * @return The value the given model would be indexed
+   * with, or null if it isn't indexed.
+   */
+  public String valueOf(T model) {
+    Object value = extractor.apply(model);
+
+    return value == null ? null : String.valueOf(value);
+  }
+
+  public synchronized void update(T model) {
+    String id = model.getId();
+    String value = valueOf(model);
+
+    if (value == null) {
+      remove(id);
+      return;
+    }
+
+    if (value.equals(valueById.get(id))) {
+      touch();
+      return;
+    }
+
+    link(id, value);
+    append(encode(id) + "\t" + encode(value));
+  }
+
+  public synchronized void remove(String id) {
+    if (!valueById.containsKey(id)) {
+      touch();
+      return;
+    }
+
+    unlink(id);
+    append(encode(id));
+  }
+
+  /**
+   * Removes the entries of the models whose ids aren't
+   * contained in the given set.
+   *
+   * @param ids The ids of the existing models.
+   */
+  public synchronized void retain(Set<String> ids) {
+    for (String id : new HashSet<>(valueById.keySet())) {
+      if (!ids.contains(id)) {
+        remove(id);
+      }
+    }
+  }
+
+  /**
+   * Checks the loaded entries against the given model files,
+   * the index is stale if one of the indexed models doesn't
+   * have a file or a file was modified after the journal, as
+   * it was when loaded.
+   *
+   * @param files The model files, by the id of their model.
+   * @return Whether the index is coherent with the files.
+   */
+  public synchronized boolean isCoherent(Map<String, File> files) {
+    for (File modelFile : files.values()) {
+      if (modelFile.lastModified() > journalModified) {
+        return false;
+      }
+    }
+
+    return files.keySet().containsAll(valueById.keySet());
+  }
+
+  public synchronized Set<String> lookup(String value) {
+    Set<String> ids = idsByValue.get(value);
+
+    return ids == null ? Collections.emptySet() : new HashSet<>(ids);
+  }
+
+  /**
+   * Rewrites the journal so it only contains the current
+   * entries, the new journal replaces the old one atomically.
+   */
+  public synchronized void compact() {
+    File parent = file.getParentFile();
+
+    if (!parent.exists() && !parent.mkdirs()) {
+      throw new RuntimeException("Unable to create the folder of the index " + name);
+    }
+
+    File temporary = new File(parent, name + ".index.tmp");
+
+    try (Writer writer = Files.newBufferedWriter(temporary.toPath(), StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, String> entry : valueById.entrySet()) {
+        writer.write(encode(entry.getKey()) + "\t" + encode(entry.getValue()) + "\n");
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    try {
+      Files.move(
+        temporary.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE
+      );
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    journalLength = valueById.size();
+  }
+
+  private void link(
+    String id,
+    String value
+  ) {
+    unlink(id);
+    valueById.put(id, value);
+    idsByValue.computeIfAbsent(value, key -> new HashSet<>()).add(id);
+  }
+
+  private void unlink(String id) {
+    String value = valueById.remove(id);
+
+    if (value == null) {
+      return;
+    }
+
+    Set<String> ids = idsByValue.get(value);
+    ids.remove(id);
+
+    if (ids.isEmpty()) {
+      idsByValue.remove(value);
+    }
+  }
+
+  private void touch() {
+    if (file.exists()) {
+      // a failure only causes the index to be rebuilt on load
+      file.setLastModified(System.currentTimeMillis());
+    }
+  }
+
+  private void append(String line) {
+    File parent = file.getParentFile();
+
+    if (!parent.exists() && !parent.mkdirs()) {
+      throw new RuntimeException("Unable to create the folder of the index " + name);
+    }
+
+    try {
+      Files.write(
+        file.toPath(),
+        (line + "\n").getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND
+      );
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    journalLength++;
+  }
+
+  // URL encoding guarantees the absence of tabs and line breaks
+  private static String encode(String source) {
+    try {
+      return URLEncoder.encode(source, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String decode(String source) {
+    try {
+      return URLDecoder.decode(source, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
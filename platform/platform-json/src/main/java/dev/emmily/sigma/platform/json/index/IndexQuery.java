@@ -0,0 +1,49 @@
+package dev.emmily.sigma.platform.json.index;
+
+import java.util.Objects;
+
+/**
+ * Represents an equality query over a {@link FileIndex},
+ * only the files of the models whose indexed value is
+ * equal to the queried value are read.
+ */
+public class IndexQuery {
+  private final String index;
+  private final String value;
+
+  private IndexQuery(
+    String index,
+    String value
+  ) {
+    this.index = index;
+    this.value = value;
+  }
+
+  /**
+   * @param index The name of the queried index.
+   * @param value The expected value, compared using its
+   *              string representation.
+   */
+  public static IndexQuery of(
+    String index,
+    Object value
+  ) {
+    return new IndexQuery(
+      Objects.requireNonNull(index, "index"),
+      String.valueOf(value)
+    );
+  }
+
+  public String getIndex() {
+    return index;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return index + "=" + value;
+  }
+}
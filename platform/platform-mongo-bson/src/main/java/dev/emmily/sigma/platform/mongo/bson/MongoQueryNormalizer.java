@@ -0,0 +1,122 @@
+package dev.emmily.sigma.platform.mongo.bson;
+
+import dev.emmily.sigma.api.query.KeyedQuery;
+import dev.emmily.sigma.api.query.QueryNormalizer;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Normalizes Bson and String queries into canonical documents,
+ * so queries built in different ways, e.g. with filters or as
+ * raw JSON, share their cached results. The fields of filters
+ * and the operators of their conditions are sorted, while the
+ * values compared against are kept as they are, since the order
+ * of embedded documents matters when matching them. It only
+ * depends on the BSON library, so it's shared by the synchronous
+ * and the reactive platforms.
+ */
+public class MongoQueryNormalizer
+  implements QueryNormalizer {
+  private final CodecRegistry codecRegistry;
+
+  public MongoQueryNormalizer(CodecRegistry codecRegistry) {
+    this.codecRegistry = codecRegistry;
+  }
+
+  @Override
+  public Object normalize(Object query) {
+    if (query instanceof KeyedQuery) {
+      return ((KeyedQuery) query).getKey();
+    }
+
+    if (query instanceof String) {
+      return canonicalFilter(BsonDocument.parse((String) query));
+    }
+
+    if (query instanceof Bson) {
+      return canonicalFilter(((Bson) query).toBsonDocument(BsonDocument.class, codecRegistry));
+    }
+
+    return null;
+  }
+
+  private static BsonDocument canonicalFilter(BsonDocument filter) {
+    BsonDocument canonical = new BsonDocument();
+
+    for (String field : sortedKeys(filter)) {
+      BsonValue value = filter.get(field);
+
+      if (isLogicalOperator(field) && value.isArray()) {
+        BsonArray filters = new BsonArray();
+
+        for (BsonValue element : value.asArray()) {
+          filters.add(element.isDocument() ? canonicalFilter(element.asDocument()) : element);
+        }
+
+        canonical.put(field, filters);
+      } else {
+        canonical.put(field, canonicalCondition(value));
+      }
+    }
+
+    return canonical;
+  }
+
+  /**
+   * Sorts the operators of the given condition, which is
+   * kept as it is if it isn't made of operators.
+   */
+  private static BsonValue canonicalCondition(BsonValue condition) {
+    if (!condition.isDocument() || !isOperatorDocument(condition.asDocument())) {
+      return condition;
+    }
+
+    BsonDocument operators = condition.asDocument();
+    BsonDocument canonical = new BsonDocument();
+
+    for (String operator : sortedKeys(operators)) {
+      BsonValue value = operators.get(operator);
+
+      if (operator.equals("$elemMatch") && value.isDocument()) {
+        canonical.put(operator, canonicalFilter(value.asDocument()));
+      } else {
+        canonical.put(operator, canonicalCondition(value));
+      }
+    }
+
+    return canonical;
+  }
+
+  private static boolean isOperatorDocument(BsonDocument document) {
+    if (document.isEmpty()) {
+      return false;
+    }
+
+    for (String key : document.keySet()) {
+      if (!key.startsWith("$")) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean isLogicalOperator(String field) {
+    return field.equals("$and") || field.equals("$or") || field.equals("$nor");
+  }
+
+  private static List<String> sortedKeys(Map<String, ?> document) {
+    List<String> keys = new ArrayList<>(document.keySet());
+    Collections.sort(keys);
+
+    return keys;
+  }
+}
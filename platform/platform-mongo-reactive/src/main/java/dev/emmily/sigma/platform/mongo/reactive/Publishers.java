@@ -0,0 +1,148 @@
+package dev.emmily.sigma.platform.mongo.reactive;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * Adapts the publishers of the reactive streams driver to
+ * completable futures, which are completed by the driver
+ * threads, so no thread is blocked waiting for the server.
+ */
+final class Publishers {
+  private Publishers() {
+  }
+
+  /**
+   * @return A future completed with the first published element,
+   * or null if nothing is published.
+   */
+  static <T> CompletableFuture<T> first(Publisher<T> publisher) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    publisher.subscribe(new Subscriber<T>() {
+      private Subscription subscription;
+
+      @Override
+      public void onSubscribe(Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+      }
+
+      @Override
+      public void onNext(T element) {
+        if (future.complete(element)) {
+          subscription.cancel();
+        }
+      }
+
+      @Override
+      public void onError(Throwable error) {
+        future.completeExceptionally(error);
+      }
+
+      @Override
+      public void onComplete() {
+        future.complete(null);
+      }
+    });
+
+    return future;
+  }
+
+  /**
+   * @return A future completed with every published element.
+   */
+  static <T> CompletableFuture<List<T>> toList(Publisher<T> publisher) {
+    List<T> elements = new ArrayList<>();
+
+    return forEach(publisher, Integer.MAX_VALUE, elements::add)
+      .thenApply(ignored -> elements);
+  }
+
+  /**
+   * Hands every published element to the given consumer, requesting
+   * them in batches of the given size, so the next batch is only
+   * requested after the consumer handled the previous one. The
+   * consumer is called by the driver threads, one element at a time.
+   *
+   * @return A future completed when every element was consumed,
+   * cancelling it cancels the subscription.
+   */
+  static <T> CompletableFuture<Void> forEach(
+    Publisher<T> publisher,
+    int batchSize,
+    Consumer<? super T> consumer
+  ) {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    publisher.subscribe(new Subscriber<T>() {
+      private Subscription subscription;
+      private int pending;
+
+      @Override
+      public void onSubscribe(Subscription subscription) {
+        this.subscription = subscription;
+        future.whenComplete((result, error) -> {
+          if (future.isCancelled()) {
+            subscription.cancel();
+          }
+        });
+        pending = batchSize;
+        subscription.request(batchSize);
+      }
+
+      @Override
+      public void onNext(T element) {
+        if (future.isDone()) {
+          return;
+        }
+
+        try {
+          consumer.accept(element);
+        } catch (Throwable error) {
+          subscription.cancel();
+          future.completeExceptionally(error);
+          return;
+        }
+
+        if (--pending == 0) {
+          pending = batchSize;
+          subscription.request(batchSize);
+        }
+      }
+
+      @Override
+      public void onError(Throwable error) {
+        future.completeExceptionally(error);
+      }
+
+      @Override
+      public void onComplete() {
+        future.complete(null);
+      }
+    });
+
+    return future;
+  }
+
+  /**
+   * Waits for the given future, used by the synchronous methods,
+   * rethrowing the errors of the driver as they are.
+   */
+  static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+
+      throw e;
+    }
+  }
+}
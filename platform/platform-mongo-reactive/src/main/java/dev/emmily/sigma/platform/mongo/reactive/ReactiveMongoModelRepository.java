@@ -0,0 +1,574 @@
+package dev.emmily.sigma.platform.mongo.reactive;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndDeleteOptions;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.reactivestreams.client.FindPublisher;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import dev.emmily.sigma.api.Model;
+import dev.emmily.sigma.api.VersionedModel;
+import dev.emmily.sigma.api.repository.CachedAsyncModelRepository;
+import dev.emmily.sigma.api.repository.ModelRepository;
+import dev.emmily.sigma.api.repository.Page;
+import dev.emmily.sigma.api.repository.WriteResult;
+import dev.emmily.sigma.platform.mongo.bson.MongoQueryNormalizer;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.or;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.ascending;
+import static dev.emmily.sigma.platform.mongo.reactive.Publishers.first;
+import static dev.emmily.sigma.platform.mongo.reactive.Publishers.forEach;
+import static dev.emmily.sigma.platform.mongo.reactive.Publishers.join;
+import static dev.emmily.sigma.platform.mongo.reactive.Publishers.toList;
+
+/**
+ * This is a MongoDB implementation using
+ * the MongoDB reactive streams driver. Its
+ * async methods don't block any thread while
+ * waiting for the server, they are completed
+ * by the driver threads, while the synchronous
+ * methods wait for them. It allows the usage of
+ * {@link Bson} objects as queries, as well as
+ * raw strings representing {@link Bson} queries.
+ *
+ * @param <T> The type of model held by this
+ *            model service.
+ */
+public class ReactiveMongoModelRepository<T extends Model>
+  extends CachedAsyncModelRepository<T>
+  implements ModelRepository<T> {
+  private static final IllegalArgumentException INVALID_QUERY = new IllegalArgumentException(
+    "ReactiveMongoModelService only accepts queries of type Bson and String"
+  );
+  private static final int DELETE_BATCH_SIZE = 1000;
+  private final MongoCollection<T> mongoCollection;
+  private int streamBatchSize = 256;
+  private String versionField = "version";
+
+  /**
+   * @param executor The executor used by the operations over
+   *                 the cache repository, the operations over
+   *                 the collection don't use it.
+   */
+  public ReactiveMongoModelRepository(
+    Executor executor,
+    ModelRepository<T> cacheModelRepository,
+    MongoCollection<T> mongoCollection
+  ) {
+    super(executor, cacheModelRepository);
+    this.mongoCollection = mongoCollection;
+    setQueryNormalizer(new MongoQueryNormalizer(mongoCollection.getCodecRegistry()));
+  }
+
+  public ReactiveMongoModelRepository(
+    ModelRepository<T> cacheModelRepository,
+    MongoCollection<T> mongoCollection
+  ) {
+    this(
+      Executors.newSingleThreadExecutor(),
+      cacheModelRepository,
+      mongoCollection
+    );
+  }
+
+  @Override
+  public void create(T model) {
+    join(createAsync(model));
+  }
+
+  @Override
+  public CompletableFuture<?> createAsync(T model) {
+    return first(mongoCollection.replaceOne(
+      eq("_id", model.getId()),
+      model,
+      new ReplaceOptions().upsert(true)
+    )).thenRun(() -> modelsChanged(Collections.singletonList(model.getId())));
+  }
+
+  @Override
+  public WriteResult createVersioned(T model) {
+    return join(createVersionedAsync(model));
+  }
+
+  /**
+   * Writes the given model with a replace filtered by its id and
+   * its version, so the server checks the version and writes in a
+   * single operation. Models which must not exist yet are upserted,
+   * matching documents without a version too. A duplicate key error
+   * means another writer created the model first if a document with
+   * another version is found with its id, otherwise a unique secondary
+   * index rejected the model and the error is reported.
+   *
+   * @see #setVersionField(String)
+   */
+  @Override
+  public CompletableFuture<WriteResult> createVersionedAsync(T model) {
+    VersionedModel versioned = VersionedModel.of(model);
+    long expectedVersion = versioned.getVersion();
+    Bson versionFilter = expectedVersion == 0
+      ? or(Filters.exists(versionField, false), eq(versionField, 0))
+      : eq(versionField, expectedVersion);
+    CompletableFuture<WriteResult> future = new CompletableFuture<>();
+
+    versioned.setVersion(expectedVersion + 1);
+    first(mongoCollection.replaceOne(
+      and(eq("_id", model.getId()), versionFilter),
+      model,
+      new ReplaceOptions().upsert(expectedVersion == 0)
+    )).whenComplete((result, error) -> {
+      if (error == null && (result.getMatchedCount() > 0 || result.getUpsertedId() != null)) {
+        modelsChanged(Collections.singletonList(model.getId()));
+        future.complete(WriteResult.applied(expectedVersion + 1));
+        return;
+      }
+
+      versioned.setVersion(expectedVersion);
+
+      if (error != null && !(error instanceof MongoWriteException
+        && ((MongoWriteException) error).getError().getCategory() == ErrorCategory.DUPLICATE_KEY)) {
+        future.completeExceptionally(error);
+        return;
+      }
+
+      findVersionDocumentAsync(model.getId()).whenComplete((stored, findError) -> {
+        if (findError != null) {
+          future.completeExceptionally(findError);
+        } else if (error == null) {
+          future.complete(WriteResult.conflict(stored == null ? 0 : versionOf(stored)));
+        } else if (stored != null && versionOf(stored) != expectedVersion) {
+          future.complete(WriteResult.conflict(versionOf(stored)));
+        } else {
+          // a document with the expected version would have been replaced
+          future.completeExceptionally(error);
+        }
+      });
+    });
+
+    return future;
+  }
+
+  /**
+   * @return A future completed with the document with the given
+   * id, only holding its version field, or null if it doesn't exist.
+   */
+  private CompletableFuture<BsonDocument> findVersionDocumentAsync(String id) {
+    return first(mongoCollection
+      .withDocumentClass(BsonDocument.class)
+      .find(eq("_id", id))
+      .projection(include(versionField))
+      .first());
+  }
+
+  /**
+   * @return The version held by the given document, 0 if it
+   * has no version.
+   */
+  private long versionOf(BsonDocument document) {
+    BsonValue version = document.get(versionField);
+
+    return version != null && version.isNumber() ? version.asNumber().longValue() : 0;
+  }
+
+  /**
+   * Sets the name of the field holding the version of the
+   * {@link VersionedModel versioned models}, as encoded by the
+   * codec of the collection.
+   */
+  public void setVersionField(String versionField) {
+    this.versionField = versionField;
+  }
+
+  @Override
+  public boolean exists(String id) {
+    return join(existsAsync(id));
+  }
+
+  @Override
+  public CompletableFuture<Boolean> existsAsync(String id) {
+    return first(mongoCollection.countDocuments(
+      eq("_id", id),
+      new CountOptions().limit(1)
+    )).thenApply(count -> count > 0);
+  }
+
+  @Override
+  public Set<String> existsMany(List<String> ids) {
+    return join(existsManyAsync(ids));
+  }
+
+  @Override
+  public CompletableFuture<Set<String>> existsManyAsync(List<String> ids) {
+    return findIdsAsync(in("_id", ids), -1).thenApply(HashSet::new);
+  }
+
+  @Override
+  public T find(String id) {
+    return join(findAsync(id));
+  }
+
+  @Override
+  public CompletableFuture<T> findAsync(String id) {
+    return first(mongoCollection
+      .find(eq("_id", id))
+      .first());
+  }
+
+  @Override
+  public T findByQuery(Object query) {
+    return join(findByQueryAsync(query));
+  }
+
+  @Override
+  public CompletableFuture<T> findByQueryAsync(Object query) {
+    return first(mongoCollection
+      .find(toFilter(query))
+      .first());
+  }
+
+  @Override
+  public List<T> findMany(
+    List<String> ids,
+    int limit
+  ) {
+    return join(findManyAsync(ids, limit));
+  }
+
+  @Override
+  public CompletableFuture<List<T>> findManyAsync(
+    List<String> ids,
+    int limit
+  ) {
+    return toList(limit(mongoCollection.find(in("_id", ids)), limit));
+  }
+
+  @Override
+  public List<T> findManyByQuery(
+    Object query,
+    int limit
+  ) {
+    return join(findManyByQueryAsync(query, limit));
+  }
+
+  @Override
+  public CompletableFuture<List<T>> findManyByQueryAsync(
+    Object query,
+    int limit
+  ) {
+    return toList(limit(mongoCollection.find(toFilter(query)), limit));
+  }
+
+  @Override
+  public List<String> findIds(
+    Object query,
+    int limit
+  ) {
+    return join(findIdsAsync(query, limit));
+  }
+
+  /**
+   * Finds the ids of the models matching the given query,
+   * projecting only the "_id" field of the documents.
+   */
+  @Override
+  public CompletableFuture<List<String>> findIdsAsync(
+    Object query,
+    int limit
+  ) {
+    FindPublisher<Document> documents = mongoCollection
+      .withDocumentClass(Document.class)
+      .find(toFilter(query))
+      .projection(include("_id"));
+
+    return toList(limit(documents, limit)).thenApply(found -> {
+      List<String> ids = new ArrayList<>(found.size());
+
+      for (Document document : found) {
+        ids.add(String.valueOf(document.get("_id")));
+      }
+
+      return ids;
+    });
+  }
+
+  @Override
+  public long count(
+    Object query,
+    int limit
+  ) {
+    return join(countAsync(query, limit));
+  }
+
+  @Override
+  public CompletableFuture<Long> countAsync(
+    Object query,
+    int limit
+  ) {
+    CountOptions options = new CountOptions();
+
+    if (limit >= 0) {
+      options.limit(limit);
+    }
+
+    return first(mongoCollection.countDocuments(toFilter(query), options));
+  }
+
+  @Override
+  public Page<T> findPage(
+    Object query,
+    String continuation,
+    int size
+  ) {
+    return join(findPageAsync(query, continuation, size));
+  }
+
+  /**
+   * Finds a page of the models matching the given query, sorted
+   * by id, using a range filter on "_id" so the server walks the
+   * id index from the continuation on instead of skipping.
+   */
+  @Override
+  public CompletableFuture<Page<T>> findPageAsync(
+    Object query,
+    String continuation,
+    int size
+  ) {
+    Page.checkSize(size);
+
+    Bson filter = toFilter(query);
+
+    if (continuation != null) {
+      filter = and(filter, gt("_id", Page.decodeContinuation(continuation)));
+    }
+
+    return toList(mongoCollection
+      .find(filter)
+      .sort(ascending("_id"))
+      .limit(size + 1))
+      .thenApply(models -> Page.byId(models, size));
+  }
+
+  @Override
+  public List<T> findAll() {
+    return join(findAllAsync());
+  }
+
+  @Override
+  public CompletableFuture<List<T>> findAllAsync() {
+    return toList(mongoCollection.find());
+  }
+
+  /**
+   * Hands every model of the collection to the given consumer
+   * as soon as it's decoded. The models are requested in batches,
+   * and the next batch is only requested once the consumer handled
+   * the previous one, so slow consumers don't make the models pile
+   * up in memory.
+   *
+   * @param consumer The consumer receiving the models, called by
+   *                 the driver threads.
+   * @return A future completed once every model was consumed,
+   * cancelling it stops the iteration.
+   * @see #setStreamBatchSize(int)
+   */
+  public CompletableFuture<Void> streamAllAsync(Consumer<? super T> consumer) {
+    return streamManyByQueryAsync(new Document(), consumer);
+  }
+
+  /**
+   * @see #streamAllAsync(Consumer)
+   */
+  public void streamAll(Consumer<? super T> consumer) {
+    join(streamAllAsync(consumer));
+  }
+
+  /**
+   * Hands every model matching the given query to the given
+   * consumer, with the same backpressure as
+   * {@link #streamAllAsync(Consumer)}.
+   */
+  public CompletableFuture<Void> streamManyByQueryAsync(
+    Object query,
+    Consumer<? super T> consumer
+  ) {
+    return forEach(
+      mongoCollection
+        .find(toFilter(query))
+        .batchSize(streamBatchSize),
+      streamBatchSize,
+      consumer
+    );
+  }
+
+  @Override
+  public void delete(String id) {
+    join(deleteAsync(id));
+  }
+
+  @Override
+  public CompletableFuture<?> deleteAsync(String id) {
+    return first(mongoCollection.deleteOne(eq("_id", id)))
+      .thenRun(() -> modelsChanged(Collections.singletonList(id)));
+  }
+
+  @Override
+  public void deleteByQuery(Object query) {
+    join(deleteByQueryAsync(query));
+  }
+
+  /**
+   * Deletes a model matching the given query, only transferring
+   * the "_id" field of the deleted document.
+   */
+  @Override
+  public CompletableFuture<?> deleteByQueryAsync(Object query) {
+    return first(mongoCollection
+      .withDocumentClass(Document.class)
+      .findOneAndDelete(toFilter(query), new FindOneAndDeleteOptions().projection(include("_id"))))
+      .thenAccept(deleted -> {
+        if (deleted != null) {
+          modelsChanged(Collections.singletonList(String.valueOf(deleted.get("_id"))));
+        }
+      });
+  }
+
+  @Override
+  public void deleteMany(List<String> ids) {
+    join(deleteManyAsync(ids));
+  }
+
+  @Override
+  public CompletableFuture<?> deleteManyAsync(List<String> ids) {
+    return deleteIdsAsync(ids);
+  }
+
+  @Override
+  public void deleteManyByQuery(
+    Object query,
+    int limit
+  ) {
+    join(deleteManyByQueryAsync(query, limit));
+  }
+
+  /**
+   * Deletes up to the given amount of models matching the given
+   * query in batches.
+   *
+   * @see #deleteManyByQueryChunkedAsync(Object, int, int)
+   */
+  @Override
+  public CompletableFuture<?> deleteManyByQueryAsync(
+    Object query,
+    int limit
+  ) {
+    return deleteManyByQueryChunkedAsync(query, limit, DELETE_BATCH_SIZE);
+  }
+
+  /**
+   * Deletes the models matching the given query in batches, so
+   * purging many documents doesn't hold the collection or write
+   * a huge oplog entry at once. Every batch finds the ids of the
+   * next matching documents and deletes them with a single delete
+   * filtered by the ids and the query, so documents which stopped
+   * matching since they were found are kept, then broadcasts the
+   * found ids. The next batch is requested once the previous one
+   * is deleted, without blocking any thread.
+   *
+   * @param query     The query.
+   * @param limit     The maximum amount of deleted models, -1 means
+   *                  no limit.
+   * @param batchSize The amount of models deleted per batch.
+   * @return A future completed with the amount of deleted models.
+   */
+  public CompletableFuture<Long> deleteManyByQueryChunkedAsync(
+    Object query,
+    int limit,
+    int batchSize
+  ) {
+    return deleteBatchesAsync(toFilter(query), limit, batchSize, 0);
+  }
+
+  /**
+   * Sets the amount of models requested at once while streaming.
+   */
+  public void setStreamBatchSize(int streamBatchSize) {
+    this.streamBatchSize = streamBatchSize;
+  }
+
+  private CompletableFuture<Long> deleteBatchesAsync(
+    Bson filter,
+    int limit,
+    int batchSize,
+    long deleted
+  ) {
+    if (limit >= 0 && deleted >= limit) {
+      return CompletableFuture.completedFuture(deleted);
+    }
+
+    int size = limit < 0 ? batchSize : (int) Math.min(batchSize, limit - deleted);
+
+    return findIdsAsync(filter, size).thenCompose(ids -> {
+      if (ids.isEmpty()) {
+        return CompletableFuture.completedFuture(deleted);
+      }
+
+      return first(mongoCollection.deleteMany(and(filter, in("_id", ids)))).thenCompose(result -> {
+        modelsChanged(ids);
+
+        return deleteBatchesAsync(filter, limit, batchSize, deleted + result.getDeletedCount());
+      });
+    });
+  }
+
+  private CompletableFuture<Void> deleteIdsAsync(List<String> ids) {
+    return deleteAsync(in("_id", ids), ids);
+  }
+
+  private CompletableFuture<Void> deleteAsync(
+    Bson filter,
+    List<String> ids
+  ) {
+    return first(mongoCollection.deleteMany(filter))
+      .thenRun(() -> modelsChanged(ids));
+  }
+
+  private static <R> FindPublisher<R> limit(
+    FindPublisher<R> publisher,
+    int limit
+  ) {
+    return limit >= 0 ? publisher.limit(limit) : publisher;
+  }
+
+  private static Bson toFilter(Object query) {
+    if (query instanceof Bson) {
+      return (Bson) query;
+    }
+
+    if (query instanceof String) {
+      return new JsonObject((String) query);
+    }
+
+    throw INVALID_QUERY;
+  }
+}
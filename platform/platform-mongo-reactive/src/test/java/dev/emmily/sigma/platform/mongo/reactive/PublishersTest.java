@@ -0,0 +1,128 @@
+package dev.emmily.sigma.platform.mongo.reactive;
+
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PublishersTest {
+  @Test
+  public void testRequestsOneBatchAtATime() {
+    RangePublisher publisher = new RangePublisher(25);
+    List<Integer> consumed = new ArrayList<>();
+    CompletableFuture<Void> future = Publishers.forEach(publisher, 10, consumed::add);
+
+    assertEquals(Arrays.asList(10L), publisher.requests);
+    publisher.emit(10);
+    assertEquals(Arrays.asList(10L, 10L), publisher.requests);
+    publisher.emit(Integer.MAX_VALUE);
+
+    assertEquals(Arrays.asList(10L, 10L, 10L), publisher.requests);
+    assertEquals(10, publisher.maximumDemand);
+    assertEquals(25, consumed.size());
+    assertTrue(future.isDone());
+  }
+
+  @Test
+  public void testCancellationStopsTheSubscription() {
+    RangePublisher publisher = new RangePublisher(25);
+    List<Integer> consumed = new ArrayList<>();
+    CompletableFuture<Void> future = Publishers.forEach(publisher, 10, consumed::add);
+
+    publisher.emit(3);
+    future.cancel(false);
+    publisher.emit(Integer.MAX_VALUE);
+
+    assertTrue(publisher.cancelled);
+    assertEquals(Arrays.asList(0, 1, 2), consumed);
+  }
+
+  @Test
+  public void testConsumerErrorsStopTheSubscription() {
+    RangePublisher publisher = new RangePublisher(25);
+    IllegalStateException error = new IllegalStateException();
+    CompletableFuture<Void> future = Publishers.forEach(publisher, 10, element -> {
+      if (element == 2) {
+        throw error;
+      }
+    });
+
+    publisher.emit(Integer.MAX_VALUE);
+
+    assertTrue(publisher.cancelled);
+    assertTrue(future.isCompletedExceptionally());
+    assertEquals(3, publisher.emitted);
+  }
+
+  @Test
+  public void testFirstOnlyRequestsOneElement() {
+    RangePublisher publisher = new RangePublisher(25);
+    CompletableFuture<Integer> future = Publishers.first(publisher);
+
+    publisher.emit(Integer.MAX_VALUE);
+
+    assertEquals(Arrays.asList(1L), publisher.requests);
+    assertTrue(publisher.cancelled);
+    assertEquals((Integer) 0, future.join());
+  }
+
+  /**
+   * Publishes the integers from 0 until the given size, only when
+   * told to emit them and only as many as were requested.
+   */
+  private static class RangePublisher
+    implements Publisher<Integer> {
+    private final int size;
+    private final List<Long> requests = new ArrayList<>();
+    private Subscriber<? super Integer> subscriber;
+    private long demand;
+    private long maximumDemand;
+    private int emitted;
+    private boolean cancelled;
+
+    private RangePublisher(int size) {
+      this.size = size;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super Integer> subscriber) {
+      this.subscriber = subscriber;
+      subscriber.onSubscribe(new Subscription() {
+        @Override
+        public void request(long n) {
+          requests.add(n);
+          demand += n;
+          maximumDemand = Math.max(maximumDemand, demand);
+        }
+
+        @Override
+        public void cancel() {
+          cancelled = true;
+        }
+      });
+    }
+
+    /**
+     * Emits up to the given amount of requested elements, the
+     * elements requested while emitting included.
+     */
+    private void emit(int count) {
+      while (count-- > 0 && demand > 0 && emitted < size && !cancelled) {
+        demand--;
+        subscriber.onNext(emitted++);
+      }
+
+      if (emitted == size && !cancelled) {
+        subscriber.onComplete();
+      }
+    }
+  }
+}
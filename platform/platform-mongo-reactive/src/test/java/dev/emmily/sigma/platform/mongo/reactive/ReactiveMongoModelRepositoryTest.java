@@ -0,0 +1,216 @@
+package dev.emmily.sigma.platform.mongo.reactive;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import dev.emmily.sigma.api.repository.Page;
+import dev.emmily.sigma.api.repository.WriteResult;
+import dev.emmily.sigma.platform.jdk.MapModelRepository;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.codecs.pojo.PojoCodecProvider;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Filters.eq;
+import static dev.emmily.sigma.platform.mongo.reactive.Publishers.first;
+import static dev.emmily.sigma.platform.mongo.reactive.Publishers.join;
+import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the repository against a MongoDB server started in a
+ * container, so Docker is required.
+ */
+public class ReactiveMongoModelRepositoryTest {
+  @ClassRule
+  public static final MongoDBContainer MONGO = new MongoDBContainer(DockerImageName.parse("mongo:6.0"));
+  private static final CodecRegistry CODEC_REGISTRY = fromRegistries(
+    MongoClientSettings.getDefaultCodecRegistry(),
+    fromProviders(PojoCodecProvider.builder().automatic(true).build())
+  );
+  private static MongoClient client;
+  private ReactiveMongoModelRepository<TestModel> repository;
+
+  @BeforeClass
+  public static void connect() {
+    client = MongoClients.create(MONGO.getReplicaSetUrl());
+  }
+
+  @AfterClass
+  public static void disconnect() {
+    client.close();
+  }
+
+  @Before
+  public void setUp() {
+    MongoCollection<TestModel> collection = client
+      .getDatabase("sigma")
+      .getCollection("models", TestModel.class)
+      .withCodecRegistry(CODEC_REGISTRY);
+    join(first(collection.drop()));
+    repository = new ReactiveMongoModelRepository<>(Runnable::run, new MapModelRepository<>(), collection);
+  }
+
+  @Test
+  public void testCreatesAndFindsModels() {
+    TestModel model = new TestModel("model", "value");
+    repository.createAsync(model).join();
+
+    assertEquals(model, repository.findAsync("model").join());
+    assertNull(repository.findAsync("missing").join());
+    assertTrue(repository.existsAsync("model").join());
+    assertFalse(repository.existsAsync("missing").join());
+
+    TestModel replaced = new TestModel("model", "replaced");
+    repository.createAsync(replaced).join();
+    assertEquals(replaced, repository.findByQueryAsync(eq("value", "replaced")).join());
+  }
+
+  @Test
+  public void testLimitsResults() {
+    List<String> ids = createModels(5);
+
+    assertEquals(3, repository.findManyByQueryAsync(new Document(), 3).join().size());
+    assertEquals(5, repository.findManyByQueryAsync(new Document(), -1).join().size());
+    assertEquals(2, repository.findManyAsync(ids, 2).join().size());
+    assertEquals(2, repository.findIdsAsync(new Document(), 2).join().size());
+    assertEquals(4L, (long) repository.countAsync(new Document(), 4).join());
+    assertEquals(5L, (long) repository.countAsync(new Document(), -1).join());
+  }
+
+  @Test
+  public void testPagesFromContinuation() {
+    List<String> ids = createModels(10);
+    List<String> paged = new ArrayList<>();
+    String continuation = null;
+    int pages = 0;
+
+    do {
+      Page<TestModel> page = repository.findPageAsync(new Document(), continuation, 4).join();
+
+      for (TestModel model : page.getItems()) {
+        paged.add(model.getId());
+      }
+
+      continuation = page.getContinuation();
+      pages++;
+    } while (continuation != null);
+
+    Collections.sort(ids);
+    assertEquals(ids, paged);
+    assertEquals(3, pages);
+  }
+
+  @Test
+  public void testStreamsEveryModel() {
+    createModels(50);
+    repository.setStreamBatchSize(7);
+    List<TestModel> streamed = Collections.synchronizedList(new ArrayList<>());
+
+    repository.streamAllAsync(streamed::add).join();
+    assertEquals(50, streamed.size());
+  }
+
+  @Test
+  public void testStopsStreamingWhenCancelled() throws InterruptedException {
+    createModels(50);
+    repository.setStreamBatchSize(5);
+    List<TestModel> streamed = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch reached = new CountDownLatch(1);
+    CountDownLatch cancelled = new CountDownLatch(1);
+
+    CompletableFuture<Void> future = repository.streamAllAsync(model -> {
+      streamed.add(model);
+
+      // holds the driver thread until the stream is cancelled
+      if (streamed.size() == 12) {
+        reached.countDown();
+
+        try {
+          cancelled.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+
+    assertTrue(reached.await(10, TimeUnit.SECONDS));
+    future.cancel(false);
+    cancelled.countDown();
+    Thread.sleep(200);
+
+    assertEquals(12, streamed.size());
+  }
+
+  @Test
+  public void testDeletesQueriedModelsInBatches() {
+    createModels(25);
+
+    assertEquals(12L, (long) repository.deleteManyByQueryChunkedAsync(new Document(), 12, 5).join());
+    assertEquals(13L, (long) repository.countAsync(new Document(), -1).join());
+    assertEquals(13L, (long) repository.deleteManyByQueryChunkedAsync(new Document(), -1, 5).join());
+    assertEquals(0L, (long) repository.countAsync(new Document(), -1).join());
+  }
+
+  @Test
+  public void testDeletesOneQueriedModel() {
+    repository.createAsync(new TestModel("first", "deleted")).join();
+    repository.createAsync(new TestModel("second", "deleted")).join();
+    repository.deleteByQueryAsync(eq("value", "deleted")).join();
+
+    assertEquals(1L, (long) repository.countAsync(new Document(), -1).join());
+  }
+
+  @Test
+  public void testCreatesVersionedModels() {
+    TestModel model = new TestModel("model", "first");
+    WriteResult created = repository.createVersionedAsync(model).join();
+
+    assertTrue(created.isApplied());
+    assertEquals(1L, created.getVersion());
+
+    TestModel stale = new TestModel("model", "stale");
+    WriteResult conflict = repository.createVersionedAsync(stale).join();
+
+    assertTrue(conflict.isConflict());
+    assertEquals(1L, conflict.getVersion());
+    assertEquals(0L, stale.getVersion());
+
+    model.setValue("second");
+    assertTrue(repository.createVersionedAsync(model).join().isApplied());
+    assertEquals(model, repository.findAsync("model").join());
+    assertEquals(2L, model.getVersion());
+  }
+
+  private List<String> createModels(int amount) {
+    List<String> ids = new ArrayList<>(amount);
+
+    // created out of order, so pages are sorted by the server
+    for (int i = amount - 1; i >= 0; i--) {
+      String id = String.format("model-%02d", i);
+      repository.createAsync(new TestModel(id, "value")).join();
+      ids.add(id);
+    }
+
+    return ids;
+  }
+}
@@ -0,0 +1,81 @@
+package dev.emmily.sigma.platform.mongo.reactive;
+
+import dev.emmily.sigma.api.VersionedModel;
+
+import java.util.Objects;
+
+/**
+ * A model encoded by the POJO codec, which stores
+ * the "id" property as the "_id" field.
+ */
+public class TestModel
+  implements VersionedModel {
+  private String id;
+  private String value;
+  private long version;
+
+  public TestModel() {
+  }
+
+  public TestModel(
+    String id,
+    String value
+  ) {
+    this.id = id;
+    this.value = value;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  public void setValue(String value) {
+    this.value = value;
+  }
+
+  @Override
+  public long getVersion() {
+    return version;
+  }
+
+  @Override
+  public void setVersion(long version) {
+    this.version = version;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+
+    if (!(o instanceof TestModel)) {
+      return false;
+    }
+
+    TestModel other = (TestModel) o;
+
+    return Objects.equals(id, other.id)
+      && Objects.equals(value, other.value)
+      && version == other.version;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(id, value, version);
+  }
+
+  @Override
+  public String toString() {
+    return "TestModel{id=" + id + ", value=" + value + ", version=" + version + "}";
+  }
+}
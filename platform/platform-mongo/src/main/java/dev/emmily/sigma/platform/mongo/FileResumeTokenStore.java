@@ -0,0 +1,62 @@
+package dev.emmily.sigma.platform.mongo;
+
+import org.bson.BsonDocument;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A {@link ResumeTokenStore} which saves the token as JSON in
+ * a file. The file is replaced atomically, so a crash while
+ * saving leaves the previous token.
+ */
+public class FileResumeTokenStore
+  implements ResumeTokenStore {
+  private final Path file;
+
+  public FileResumeTokenStore(Path file) {
+    this.file = file;
+  }
+
+  @Override
+  public BsonDocument load() {
+    if (!Files.exists(file)) {
+      return null;
+    }
+
+    try {
+      return BsonDocument.parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public void save(BsonDocument token) {
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+    try {
+      Files.write(temporary, token.toJson().getBytes(StandardCharsets.UTF_8));
+      Files.move(
+        temporary,
+        file,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE
+      );
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public void clear() {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
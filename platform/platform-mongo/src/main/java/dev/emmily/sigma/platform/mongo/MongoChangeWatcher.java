@@ -0,0 +1,193 @@
+package dev.emmily.sigma.platform.mongo;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import org.bson.BsonDocument;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches a collection using a change stream and reports every
+ * change made to its documents, including the ones made by other
+ * services. The resume token is saved in a {@link ResumeTokenStore}
+ * whenever the stream is idle and every hundred changes, so the
+ * watcher resumes where it stopped after a restart, and changes may
+ * be reported again, but aren't missed.
+ *
+ * @param <T> The type of the documents of the collection.
+ */
+public class MongoChangeWatcher<T>
+  implements Closeable {
+  private static final long RETRY_DELAY = 1000;
+  private static final int SAVE_INTERVAL = 100;
+  // ChangeStreamFatalError and ChangeStreamHistoryLost
+  private static final int FATAL_ERROR = 280;
+  private static final int HISTORY_LOST = 286;
+  private final MongoCollection<T> mongoCollection;
+  private final ResumeTokenStore tokenStore;
+  private final Consumer<ChangeStreamDocument<T>> changeHandler;
+  private final Runnable resetHandler;
+  private final Thread thread;
+  private volatile boolean running = true;
+
+  /**
+   * @param mongoCollection The watched collection.
+   * @param tokenStore      The store of the resume token.
+   * @param changeHandler   The handler receiving the changes, looking
+   *                        up the full document of updates.
+   * @param resetHandler    The handler called when changes may have been
+   *                        missed, i.e. when there isn't a token to resume
+   *                        from, the token expired or the collection was
+   *                        dropped or renamed, so every document may have
+   *                        changed. It's called once a new stream
+   *                        is opened, so no change made after the
+   *                        reset is missed.
+   */
+  public MongoChangeWatcher(
+    MongoCollection<T> mongoCollection,
+    ResumeTokenStore tokenStore,
+    Consumer<ChangeStreamDocument<T>> changeHandler,
+    Runnable resetHandler
+  ) {
+    this.mongoCollection = mongoCollection;
+    this.tokenStore = tokenStore;
+    this.changeHandler = changeHandler;
+    this.resetHandler = resetHandler;
+    this.thread = new Thread(
+      this::watch,
+      "sigma-mongo-watcher-" + mongoCollection.getNamespace().getFullName()
+    );
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void watch() {
+    BsonDocument token = tokenStore.load();
+    // the reset waits until the stream is opened, so the changes
+    // made after resetting are always received
+    boolean resetPending = token == null;
+
+    while (running) {
+      ChangeStreamIterable<T> stream = mongoCollection.watch()
+        .fullDocument(FullDocument.UPDATE_LOOKUP)
+        .maxAwaitTime(1, TimeUnit.SECONDS);
+
+      if (token != null) {
+        stream = stream.resumeAfter(token);
+      }
+
+      BsonDocument saved = token;
+      int unsaved = 0;
+
+      try (MongoChangeStreamCursor<ChangeStreamDocument<T>> cursor = stream.cursor()) {
+        if (resetPending) {
+          resetPending = false;
+          reset();
+        }
+
+        while (running) {
+          ChangeStreamDocument<T> change = cursor.tryNext();
+
+          if (change == null) {
+            // the token also advances while the stream is idle
+            BsonDocument current = cursor.getResumeToken();
+
+            if (current != null) {
+              token = current;
+            }
+          } else if (isTerminal(change.getOperationType())) {
+            // the stream is closed after these changes
+            tokenStore.clear();
+            token = null;
+            saved = null;
+            resetPending = true;
+            break;
+          } else {
+            handle(change);
+            token = change.getResumeToken();
+            unsaved++;
+          }
+
+          if (token != null && !token.equals(saved) && (change == null || unsaved >= SAVE_INTERVAL)) {
+            tokenStore.save(token);
+            saved = token;
+            unsaved = 0;
+          }
+        }
+
+        if (token != null && !token.equals(saved)) {
+          tokenStore.save(token);
+        }
+      } catch (RuntimeException e) {
+        if (!running) {
+          return;
+        }
+
+        if (e instanceof MongoException && isHistoryLost((MongoException) e)) {
+          tokenStore.clear();
+          token = null;
+          resetPending = true;
+        }
+
+        report(e);
+
+        try {
+          Thread.sleep(RETRY_DELAY);
+        } catch (InterruptedException interrupted) {
+          return;
+        }
+      }
+    }
+  }
+
+  private static boolean isHistoryLost(MongoException e) {
+    return e.getCode() == HISTORY_LOST || e.getCode() == FATAL_ERROR;
+  }
+
+  private static boolean isTerminal(OperationType operationType) {
+    return operationType == OperationType.INVALIDATE
+      || operationType == OperationType.DROP
+      || operationType == OperationType.DROP_DATABASE
+      || operationType == OperationType.RENAME;
+  }
+
+  private void handle(ChangeStreamDocument<T> change) {
+    try {
+      changeHandler.accept(change);
+    } catch (RuntimeException e) {
+      report(e);
+    }
+  }
+
+  private void reset() {
+    try {
+      resetHandler.run();
+    } catch (RuntimeException e) {
+      report(e);
+    }
+  }
+
+  private static void report(RuntimeException e) {
+    // reported without stopping the watcher
+    Thread current = Thread.currentThread();
+    current.getUncaughtExceptionHandler().uncaughtException(current, e);
+  }
+
+  @Override
+  public void close() {
+    running = false;
+
+    try {
+      thread.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package dev.emmily.sigma.platform.mongo;
+
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import org.bson.conversions.Bson;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An index declared on a {@link MongoModelRepository}, which is
+ * created by {@link MongoModelRepository#ensureIndexes()} if the
+ * collection doesn't have it yet. Indexes are immutable, every
+ * option returns a new index.
+ */
+public class MongoIndex {
+  private final String name;
+  private final Bson keys;
+  private final boolean unique;
+  private final long expireAfterSeconds;
+
+  private MongoIndex(
+    String name,
+    Bson keys,
+    boolean unique,
+    long expireAfterSeconds
+  ) {
+    this.name = name;
+    this.keys = keys;
+    this.unique = unique;
+    this.expireAfterSeconds = expireAfterSeconds;
+  }
+
+  /**
+   * Declares an index on the given keys, e.g. a compound index
+   * created with {@link Indexes#compoundIndex(Bson...)}.
+   *
+   * @param name The name of the index, which identifies it when
+   *             checking if the collection already has it.
+   * @param keys The keys of the index.
+   */
+  public static MongoIndex of(
+    String name,
+    Bson keys
+  ) {
+    return new MongoIndex(name, keys, false, -1);
+  }
+
+  /**
+   * Declares an ascending index on the given fields, which is
+   * a compound index if several fields are given.
+   */
+  public static MongoIndex ascending(
+    String name,
+    String... fields
+  ) {
+    return of(name, Indexes.ascending(fields));
+  }
+
+  /**
+   * @see #ascending(String, String...)
+   */
+  public static MongoIndex descending(
+    String name,
+    String... fields
+  ) {
+    return of(name, Indexes.descending(fields));
+  }
+
+  /**
+   * Rejects the documents with the same values as another
+   * document for the keys of the index.
+   */
+  public MongoIndex unique() {
+    return new MongoIndex(name, keys, true, expireAfterSeconds);
+  }
+
+  /**
+   * Makes the server remove the documents once the given time
+   * passed since the date held by the indexed field, which must
+   * be a single date field.
+   */
+  public MongoIndex expireAfter(
+    long time,
+    TimeUnit unit
+  ) {
+    return new MongoIndex(name, keys, unique, unit.toSeconds(time));
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public Bson getKeys() {
+    return keys;
+  }
+
+  public boolean isUnique() {
+    return unique;
+  }
+
+  /**
+   * @return The time to live of the indexed documents in
+   * seconds, or -1 if they don't expire.
+   */
+  public long getExpireAfterSeconds() {
+    return expireAfterSeconds;
+  }
+
+  IndexModel toIndexModel() {
+    IndexOptions options = new IndexOptions()
+      .name(name)
+      .unique(unique);
+
+    if (expireAfterSeconds >= 0) {
+      options.expireAfter(expireAfterSeconds, TimeUnit.SECONDS);
+    }
+
+    return new IndexModel(keys, options);
+  }
+}
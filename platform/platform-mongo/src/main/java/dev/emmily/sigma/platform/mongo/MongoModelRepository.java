@@ -1,21 +1,74 @@
 package dev.emmily.sigma.platform.mongo;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BsonField;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndDeleteOptions;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.client.result.UpdateResult;
 import dev.emmily.sigma.api.Model;
+import dev.emmily.sigma.api.VersionedModel;
+import dev.emmily.sigma.api.aggregation.Accumulator;
+import dev.emmily.sigma.api.aggregation.Aggregation;
+import dev.emmily.sigma.api.aggregation.AggregationRow;
 import dev.emmily.sigma.api.repository.CachedAsyncModelRepository;
 import dev.emmily.sigma.api.repository.ModelRepository;
+import dev.emmily.sigma.api.repository.Page;
+import dev.emmily.sigma.api.repository.WriteResult;
+import dev.emmily.sigma.platform.mongo.bson.MongoQueryNormalizer;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonNull;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
 import org.bson.conversions.Bson;
 import org.bson.json.JsonObject;
 
-import java.nio.channels.Pipe;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
 import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.or;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.ascending;
+import static com.mongodb.client.model.Sorts.orderBy;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
 
 /**
  * This is a MongoDB implementation using
@@ -33,7 +86,15 @@ public class MongoModelRepository<T extends Model>
   private static final IllegalArgumentException INVALID_QUERY = new IllegalArgumentException(
     "MongoModelService only accepts queries of type Bson and String"
   );
+  private static final int DELETE_BATCH_SIZE = 1000;
+  private static final int EXPLAIN_QUEUE_SIZE = 64;
   private final MongoCollection<T> mongoCollection;
+  private final Map<String, MongoIndex> indexes = new LinkedHashMap<>();
+  private final Map<String, LongAdder> unindexedQueries = new ConcurrentHashMap<>();
+  private volatile double explainSampleRate;
+  private volatile Consumer<String> unindexedQueryReporter;
+  private volatile ExecutorService explainExecutor;
+  private String versionField = "version";
 
   public MongoModelRepository(
     Executor executor,
@@ -42,6 +103,7 @@ public class MongoModelRepository<T extends Model>
   ) {
     super(executor, cacheModelRepository);
     this.mongoCollection = mongoCollection;
+    setQueryNormalizer(new MongoQueryNormalizer(mongoCollection.getCodecRegistry()));
   }
 
   public MongoModelRepository(
@@ -62,13 +124,118 @@ public class MongoModelRepository<T extends Model>
       model,
       new ReplaceOptions().upsert(true)
     );
+    modelsChanged(Collections.singletonList(model.getId()));
   }
 
+  /**
+   * Writes the given model with a replace filtered by its id and
+   * its version, so the server checks the version and writes in a
+   * single operation. Models which must not exist yet are upserted,
+   * matching documents without a version too. A duplicate key error
+   * means another writer created the model first if a document with
+   * another version is found with its id, otherwise a unique secondary
+   * index rejected the model and the error is thrown.
+   *
+   * @see #setVersionField(String)
+   */
   @Override
-  public boolean exists(String id) {
+  public WriteResult createVersioned(T model) {
+    VersionedModel versioned = VersionedModel.of(model);
+    long expectedVersion = versioned.getVersion();
+    Bson versionFilter = expectedVersion == 0
+      ? or(Filters.exists(versionField, false), eq(versionField, 0))
+      : eq(versionField, expectedVersion);
+
+    versioned.setVersion(expectedVersion + 1);
+
+    try {
+      UpdateResult result = mongoCollection.replaceOne(
+        and(eq("_id", model.getId()), versionFilter),
+        model,
+        new ReplaceOptions().upsert(expectedVersion == 0)
+      );
+
+      if (result.getMatchedCount() == 0 && result.getUpsertedId() == null) {
+        versioned.setVersion(expectedVersion);
+
+        return WriteResult.conflict(findVersion(model.getId()));
+      }
+    } catch (MongoWriteException e) {
+      versioned.setVersion(expectedVersion);
+
+      if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+        BsonDocument stored = findVersionDocument(model.getId());
+
+        // a document with the expected version would have been replaced
+        if (stored != null && versionOf(stored) != expectedVersion) {
+          return WriteResult.conflict(versionOf(stored));
+        }
+      }
+
+      throw e;
+    }
+
+    modelsChanged(Collections.singletonList(model.getId()));
+
+    return WriteResult.applied(expectedVersion + 1);
+  }
+
+  /**
+   * @return The stored version of the model with the given id,
+   * 0 if it doesn't exist or has no version.
+   */
+  private long findVersion(String id) {
+    BsonDocument document = findVersionDocument(id);
+
+    return document == null ? 0 : versionOf(document);
+  }
+
+  /**
+   * @return The document with the given id, only holding its
+   * version field, or null if it doesn't exist.
+   */
+  private BsonDocument findVersionDocument(String id) {
     return mongoCollection
+      .withDocumentClass(BsonDocument.class)
       .find(eq("_id", id))
-      .first() != null;
+      .projection(include(versionField))
+      .first();
+  }
+
+  /**
+   * @return The version held by the given document, 0 if it
+   * has no version.
+   */
+  private long versionOf(BsonDocument document) {
+    BsonValue version = document.get(versionField);
+
+    return version != null && version.isNumber() ? version.asNumber().longValue() : 0;
+  }
+
+  /**
+   * Sets the name of the field holding the version of the
+   * {@link VersionedModel versioned models}, as encoded by the
+   * codec of the collection.
+   */
+  public void setVersionField(String versionField) {
+    this.versionField = versionField;
+  }
+
+  /**
+   * Checks the existence of a model counting the documents with
+   * its id, up to one, so the document is never transferred.
+   */
+  @Override
+  public boolean exists(String id) {
+    return mongoCollection.countDocuments(
+      eq("_id", id),
+      new CountOptions().limit(1)
+    ) > 0;
+  }
+
+  @Override
+  public Set<String> existsMany(List<String> ids) {
+    return new HashSet<>(findIds(in("_id", ids), -1));
   }
 
   @Override
@@ -80,15 +247,7 @@ public class MongoModelRepository<T extends Model>
 
   @Override
   public T findByQuery(Object query) {
-    Bson filter;
-
-    if (query instanceof Bson) {
-      filter = (Bson) query;
-    } else if (query instanceof String) {
-      filter = new JsonObject((String) query);
-    } else {
-      throw INVALID_QUERY;
-    }
+    Bson filter = toFilter(query);
 
     return mongoCollection
       .find(filter)
@@ -99,32 +258,434 @@ public class MongoModelRepository<T extends Model>
   public List<T> findMany(
     List<String> ids,
     int limit
+  ) {
+    return limit(mongoCollection
+      .find(in("_id", ids)), limit)
+      .into(new ArrayList<>());
+  }
+
+  @Override
+  public List<T> findManyByQuery(
+    Object query,
+    int limit
+  ) {
+    Bson filter = toFilter(query);
+
+    return limit(mongoCollection
+      .find(filter), limit)
+      .into(new ArrayList<>());
+  }
+
+  /**
+   * Finds a model only loading the given fields, the rest of
+   * the fields are left with their default values. Partially
+   * loaded models aren't cached.
+   *
+   * @param id         The id of the model.
+   * @param projection The projection applied by the server,
+   *                   e.g. {@link Projections#include(String...)}.
+   * @return The partially loaded model, or null if it doesn't exist.
+   */
+  public T findPartial(
+    String id,
+    Bson projection
   ) {
     return mongoCollection
+      .find(eq("_id", id))
+      .projection(projection)
+      .first();
+  }
+
+  /**
+   * @param fields The names of the loaded fields.
+   * @see #findPartial(String, Bson)
+   */
+  public T findPartial(
+    String id,
+    String... fields
+  ) {
+    return findPartial(id, include(fields));
+  }
+
+  /**
+   * @see #findPartial(String, Bson)
+   */
+  public CompletableFuture<T> findPartialAsync(
+    String id,
+    Bson projection
+  ) {
+    return supplyAsync(() -> findPartial(id, projection), executor);
+  }
+
+  /**
+   * @see #findPartial(String, String...)
+   */
+  public CompletableFuture<T> findPartialAsync(
+    String id,
+    String... fields
+  ) {
+    return supplyAsync(() -> findPartial(id, fields), executor);
+  }
+
+  /**
+   * @param limit The maximum amount of results, -1 means no
+   *              limit, which isn't sent to the server.
+   * @see #findPartial(String, Bson)
+   */
+  public List<T> findManyPartial(
+    List<String> ids,
+    Bson projection,
+    int limit
+  ) {
+    return limit(mongoCollection
       .find(in("_id", ids))
-      .limit(limit)
+      .projection(projection), limit)
       .into(new ArrayList<>());
   }
 
+  /**
+   * @see #findPartial(String, String...)
+   */
+  public List<T> findManyPartial(
+    List<String> ids,
+    String... fields
+  ) {
+    return findManyPartial(ids, include(fields), -1);
+  }
+
+  /**
+   * @see #findManyPartial(List, Bson, int)
+   */
+  public CompletableFuture<List<T>> findManyPartialAsync(
+    List<String> ids,
+    Bson projection,
+    int limit
+  ) {
+    return supplyAsync(() -> findManyPartial(ids, projection, limit), executor);
+  }
+
+  /**
+   * @see #findManyPartial(List, String...)
+   */
+  public CompletableFuture<List<T>> findManyPartialAsync(
+    List<String> ids,
+    String... fields
+  ) {
+    return supplyAsync(() -> findManyPartial(ids, fields), executor);
+  }
+
+  /**
+   * @param limit The maximum amount of results, -1 means no
+   *              limit, which isn't sent to the server.
+   * @see #findPartial(String, Bson)
+   */
+  public List<T> findManyByQueryPartial(
+    Object query,
+    Bson projection,
+    int limit
+  ) {
+    return limit(mongoCollection
+      .find(toFilter(query))
+      .projection(projection), limit)
+      .into(new ArrayList<>());
+  }
+
+  /**
+   * @see #findManyByQueryPartial(Object, Bson, int)
+   */
+  public CompletableFuture<List<T>> findManyByQueryPartialAsync(
+    Object query,
+    Bson projection,
+    int limit
+  ) {
+    return supplyAsync(() -> findManyByQueryPartial(query, projection, limit), executor);
+  }
+
+  /**
+   * Finds the models matching the given query, decoding only the
+   * projected fields into a lighter type instead of the model type,
+   * e.g. a view class holding the fields of a list or a {@link Document}.
+   *
+   * @param query          The query, a {@link Bson} or a {@link String}.
+   * @param projection     The projection applied by the server.
+   * @param projectionType The type the projected documents are
+   *                       decoded into, which must be supported by
+   *                       the codec registry of the collection.
+   * @param limit          The maximum amount of results, -1 means
+   *                       no limit, which isn't sent to the server.
+   */
+  public <P> List<P> findManyByQueryPartial(
+    Object query,
+    Bson projection,
+    Class<P> projectionType,
+    int limit
+  ) {
+    return limit(mongoCollection
+      .find(toFilter(query), projectionType)
+      .projection(projection), limit)
+      .into(new ArrayList<>());
+  }
+
+  /**
+   * @see #findManyByQueryPartial(Object, Bson, Class, int)
+   */
+  public <P> CompletableFuture<List<P>> findManyByQueryPartialAsync(
+    Object query,
+    Bson projection,
+    Class<P> projectionType,
+    int limit
+  ) {
+    return supplyAsync(() -> findManyByQueryPartial(query, projection, projectionType, limit), executor);
+  }
+
+  /**
+   * Finds the ids of the models matching the given query,
+   * projecting only the "_id" field of the documents.
+   */
   @Override
-  public List<T> findManyByQuery(
+  public List<String> findIds(
     Object query,
     int limit
   ) {
-    Bson filter;
+    FindIterable<Document> documents = mongoCollection
+      .withDocumentClass(Document.class)
+      .find(toFilter(query))
+      .projection(include("_id"));
 
-    if (query instanceof Bson) {
-      filter = (Bson) query;
-    } else if (query instanceof String) {
-      filter = new JsonObject((String) query);
-    } else {
-      throw INVALID_QUERY;
+    if (limit >= 0) {
+      documents.limit(limit);
     }
 
-    return mongoCollection
+    List<String> ids = new ArrayList<>();
+
+    for (Document document : documents) {
+      ids.add(String.valueOf(document.get("_id")));
+    }
+
+    return ids;
+  }
+
+  /**
+   * Counts the documents matching the given query on the
+   * server, which stops counting when the limit is reached.
+   */
+  @Override
+  public long count(
+    Object query,
+    int limit
+  ) {
+    CountOptions options = new CountOptions();
+
+    if (limit >= 0) {
+      options.limit(limit);
+    }
+
+    return mongoCollection.countDocuments(toFilter(query), options);
+  }
+
+  /**
+   * Finds a page of the models matching the given query, sorted
+   * by id, using a range filter on "_id" so the server walks the
+   * id index from the continuation on instead of skipping.
+   */
+  @Override
+  public Page<T> findPage(
+    Object query,
+    String continuation,
+    int size
+  ) {
+    Page.checkSize(size);
+
+    Bson filter = toFilter(query);
+
+    if (continuation != null) {
+      filter = and(filter, gt("_id", Page.decodeContinuation(continuation)));
+    }
+
+    List<T> models = mongoCollection
+      .find(filter)
+      .sort(ascending("_id"))
+      .limit(size + 1)
+      .into(new ArrayList<>());
+
+    return Page.byId(models, size);
+  }
+
+  /**
+   * Finds a page of the models matching the given query, sorted by
+   * the given field and then by id, so models with the same value
+   * are paged consistently. The continuation holds the value of the
+   * field of the last model, which should be present in every model
+   * since missing values can't be compared against. An index on the
+   * field and "_id" makes every page a range scan.
+   *
+   * @param query        The query.
+   * @param sortField    The field the models are sorted by.
+   * @param descending   Whether the models are sorted in descending
+   *                     order, ids are always ascending.
+   * @param continuation The token of the previous page, or null to
+   *                     find the first page.
+   * @param size         The maximum amount of models of the page.
+   */
+  public Page<T> findPage(
+    Object query,
+    String sortField,
+    boolean descending,
+    String continuation,
+    int size
+  ) {
+    Page.checkSize(size);
+
+    Bson filter = toFilter(query);
+
+    if (continuation != null) {
+      BsonDocument key = BsonDocument.parse(Page.decodeContinuation(continuation));
+      BsonValue value = key.get("value");
+      String id = key.getString("_id").getValue();
+
+      filter = and(filter, or(
+        descending ? lt(sortField, value) : gt(sortField, value),
+        and(eq(sortField, value), gt("_id", id))
+      ));
+    }
+
+    // the documents are read as found, as models are opaque, so the
+    // sort value of the last model is taken from its own document
+    List<BsonDocument> documents = mongoCollection
+      .withDocumentClass(BsonDocument.class)
       .find(filter)
-      .limit(limit)
+      .sort(orderBy(descending ? Sorts.descending(sortField) : ascending(sortField), ascending("_id")))
+      .limit(size + 1)
       .into(new ArrayList<>());
+    Codec<T> codec = mongoCollection.getCodecRegistry().get(mongoCollection.getDocumentClass());
+    List<T> items = new ArrayList<>(Math.min(documents.size(), size));
+
+    for (int i = 0; i < documents.size() && i < size; i++) {
+      items.add(codec.decode(new BsonDocumentReader(documents.get(i)), DecoderContext.builder().build()));
+    }
+
+    if (documents.size() <= size) {
+      return Page.of(items, null);
+    }
+
+    BsonDocument key = new BsonDocument("value", valueAt(documents.get(size - 1), sortField))
+      .append("_id", new BsonString(items.get(size - 1).getId()));
+
+    return Page.of(items, Page.encodeContinuation(key.toJson()));
+  }
+
+  /**
+   * @see #findPage(Object, String, boolean, String, int)
+   */
+  public CompletableFuture<Page<T>> findPageAsync(
+    Object query,
+    String sortField,
+    boolean descending,
+    String continuation,
+    int size
+  ) {
+    return supplyAsync(() -> findPage(query, sortField, descending, continuation, size), executor);
+  }
+
+  private static BsonValue valueAt(
+    BsonDocument document,
+    String path
+  ) {
+    BsonValue value = document;
+
+    for (String field : path.split("\\.")) {
+      if (!value.isDocument() || !value.asDocument().containsKey(field)) {
+        return BsonNull.VALUE;
+      }
+
+      value = value.asDocument().get(field);
+    }
+
+    return value;
+  }
+
+  /**
+   * Runs the given aggregation on the server as a pipeline of a
+   * $match stage, if the aggregation has a query, and a $group
+   * stage, so only the resulting rows are transferred.
+   */
+  @Override
+  public List<AggregationRow> aggregate(Aggregation aggregation) {
+    List<Bson> pipeline = new ArrayList<>();
+
+    if (aggregation.getMatch() != null) {
+      pipeline.add(Aggregates.match(toFilter(aggregation.getMatch())));
+    }
+
+    List<String> groupFields = aggregation.getGroupFields();
+    Document groupId = null;
+
+    if (!groupFields.isEmpty()) {
+      groupId = new Document();
+
+      // dotted paths can't be used as keys of the group id
+      for (int i = 0; i < groupFields.size(); i++) {
+        groupId.append("k" + i, "$" + groupFields.get(i));
+      }
+    }
+
+    List<BsonField> fields = new ArrayList<>();
+
+    for (Accumulator accumulator : aggregation.getAccumulators()) {
+      String name = accumulator.getName();
+      String expression = "$" + accumulator.getField();
+
+      switch (accumulator.getType()) {
+        case COUNT:
+          fields.add(Accumulators.sum(name, 1));
+          break;
+        case SUM:
+          fields.add(Accumulators.sum(name, expression));
+          break;
+        case AVG:
+          fields.add(Accumulators.avg(name, expression));
+          break;
+        case MIN:
+          fields.add(Accumulators.min(name, expression));
+          break;
+        case MAX:
+          fields.add(Accumulators.max(name, expression));
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown accumulator " + accumulator.getType());
+      }
+    }
+
+    pipeline.add(Aggregates.group(groupId, fields));
+
+    List<AggregationRow> rows = new ArrayList<>();
+
+    for (Document document : mongoCollection.aggregate(pipeline, Document.class).allowDiskUse(true)) {
+      Document id = document.get("_id", Document.class);
+      Map<String, Object> keys = new LinkedHashMap<>();
+
+      for (int i = 0; i < groupFields.size(); i++) {
+        keys.put(groupFields.get(i), id == null ? null : id.get("k" + i));
+      }
+
+      Map<String, Object> values = new LinkedHashMap<>();
+
+      for (Accumulator accumulator : aggregation.getAccumulators()) {
+        Object value = document.get(accumulator.getName());
+
+        // counts and integral sums are int32 when small, longs like in memory
+        if ((accumulator.getType() == Accumulator.Type.COUNT || accumulator.getType() == Accumulator.Type.SUM)
+          && value instanceof Integer) {
+          value = ((Integer) value).longValue();
+        }
+
+        values.put(accumulator.getName(), value);
+      }
+
+      rows.add(new AggregationRow(keys, values));
+    }
+
+    return rows;
   }
 
   @Override
@@ -135,33 +696,459 @@ public class MongoModelRepository<T extends Model>
   @Override
   public void delete(String id) {
     mongoCollection.deleteOne(eq("_id", id));
+    modelsChanged(Collections.singletonList(id));
   }
 
+  /**
+   * Deletes a model matching the given query, only transferring
+   * the "_id" field of the deleted document.
+   */
   @Override
   public void deleteByQuery(Object query) {
-    Bson filter;
+    Document deleted = mongoCollection
+      .withDocumentClass(Document.class)
+      .findOneAndDelete(toFilter(query), new FindOneAndDeleteOptions().projection(include("_id")));
 
-    if (query instanceof Bson) {
-      filter = (Bson) query;
-    } else if (query instanceof String) {
-      filter = new JsonObject((String) query);
-    } else {
-      throw INVALID_QUERY;
+    if (deleted != null) {
+      modelsChanged(Collections.singletonList(String.valueOf(deleted.get("_id"))));
     }
-
-    mongoCollection.deleteOne(filter);
   }
 
   @Override
   public void deleteMany(List<String> ids) {
     mongoCollection.deleteMany(in("_id", ids));
+    modelsChanged(ids);
   }
 
+  /**
+   * Deletes up to the given amount of models matching the given
+   * query in batches.
+   *
+   * @see #deleteManyByQueryChunked(Object, int, int)
+   */
   @Override
   public void deleteManyByQuery(
     Object query,
     int limit
   ) {
+    deleteManyByQueryChunked(query, limit, DELETE_BATCH_SIZE);
+  }
+
+  /**
+   * Deletes the models matching the given query in batches, so
+   * purging many documents doesn't hold the collection or write
+   * a huge oplog entry at once. Every batch finds the ids of the
+   * next matching documents and deletes them with a single delete
+   * filtered by the ids and the query, so documents which stopped
+   * matching since they were found are kept, then broadcasts the
+   * found ids.
+   *
+   * @param query     The query.
+   * @param limit     The maximum amount of deleted models, -1 means
+   *                  no limit.
+   * @param batchSize The amount of models deleted per batch.
+   * @return The amount of deleted models.
+   */
+  public long deleteManyByQueryChunked(
+    Object query,
+    int limit,
+    int batchSize
+  ) {
+    return deleteManyByQueryChunked(toFilter(query), limit, batchSize, () -> false);
+  }
+
+  /**
+   * Deletes the models matching the given query in batches on a
+   * new daemon thread, which ends with the deletion.
+   *
+   * @see #deleteManyByQueryChunkedAsync(Object, int, int, Executor)
+   */
+  public CompletableFuture<Long> deleteManyByQueryChunkedAsync(
+    Object query,
+    int limit,
+    int batchSize
+  ) {
+    return deleteManyByQueryChunkedAsync(query, limit, batchSize, runnable -> {
+      Thread thread = new Thread(
+        runnable,
+        "sigma-mongo-purge-" + mongoCollection.getNamespace().getFullName()
+      );
+      thread.setDaemon(true);
+      thread.start();
+    });
+  }
+
+  /**
+   * Deletes the models matching the given query in batches on the
+   * given executor. A large purge occupies its thread until it's
+   * done, so the executor must not be the executor of this
+   * repository, which would delay every other asynchronous
+   * operation, nor any other executor with a single thread shared
+   * with latency sensitive tasks. Cancelling the returned future
+   * stops the deletion once the current batch is done.
+   *
+   * @param purgeExecutor The executor running the deletion.
+   * @return A future completed with the amount of deleted models.
+   * @see #deleteManyByQueryChunked(Object, int, int)
+   */
+  public CompletableFuture<Long> deleteManyByQueryChunkedAsync(
+    Object query,
+    int limit,
+    int batchSize,
+    Executor purgeExecutor
+  ) {
+    CompletableFuture<Long> future = new CompletableFuture<>();
+    Bson filter = toFilter(query);
+
+    purgeExecutor.execute(() -> {
+      try {
+        future.complete(deleteManyByQueryChunked(filter, limit, batchSize, future::isDone));
+      } catch (RuntimeException e) {
+        future.completeExceptionally(e);
+      }
+    });
+
+    return future;
+  }
+
+  private long deleteManyByQueryChunked(
+    Bson filter,
+    int limit,
+    int batchSize,
+    BooleanSupplier cancelled
+  ) {
+    long deleted = 0;
+
+    while ((limit < 0 || deleted < limit) && !cancelled.getAsBoolean()) {
+      int size = limit < 0 ? batchSize : (int) Math.min(batchSize, limit - deleted);
+      List<String> ids = findIds(filter, size);
+
+      if (ids.isEmpty()) {
+        break;
+      }
+
+      long batchDeleted = mongoCollection
+        .deleteMany(and(filter, in("_id", ids)))
+        .getDeletedCount();
+      modelsChanged(ids);
+      // ids deleted or changed by someone else since they were
+      // found aren't found again, so the loop ends
+      deleted += batchDeleted;
+    }
+
+    return deleted;
+  }
+
+  /**
+   * Starts watching the collection of this repository with a
+   * change stream, so the cache stays coherent with the changes
+   * made by other services. Cached models are either refreshed
+   * with the looked up documents or invalidated, while models
+   * that aren't cached aren't loaded. Changes made through this
+   * repository are also received, which is harmless. When changes
+   * may have been missed, every cached model is invalidated.
+   *
+   * @param tokenStore The store of the resume token, so changes
+   *                   made while stopped aren't missed.
+   * @param refresh    Whether cached models should be refreshed,
+   *                   instead of invalidated.
+   * @return The watcher, which must be closed to stop watching.
+   */
+  public MongoChangeWatcher<T> watch(
+    ResumeTokenStore tokenStore,
+    boolean refresh
+  ) {
+    return new MongoChangeWatcher<>(
+      mongoCollection,
+      tokenStore,
+      change -> applyChange(change, refresh),
+      () -> {
+        invalidateQueries();
+
+        List<String> ids = new ArrayList<>();
+
+        for (T model : getAll()) {
+          ids.add(model.getId());
+        }
+
+        if (!ids.isEmpty()) {
+          invalidateMany(ids);
+        }
+      }
+    );
+  }
+
+  private void applyChange(
+    ChangeStreamDocument<T> change,
+    boolean refresh
+  ) {
+    // any change may affect the cached query results
+    invalidateQueries();
+
+    BsonDocument documentKey = change.getDocumentKey();
+
+    if (documentKey == null) {
+      return;
+    }
+
+    String id = idOf(documentKey.get("_id"));
+
+    if (!existsCached(id)) {
+      return;
+    }
+
+    T model = change.getFullDocument();
+
+    // the document is null if it was deleted after the change
+    if (refresh && model != null && change.getOperationType() != OperationType.DELETE) {
+      cache(model);
+    } else {
+      invalidate(id);
+    }
+  }
+
+  private static String idOf(BsonValue id) {
+    if (id.isString()) {
+      return id.asString().getValue();
+    }
+
+    if (id.isObjectId()) {
+      return id.asObjectId().getValue().toHexString();
+    }
+
+    return id.toString();
+  }
+
+  /**
+   * Declares an index of the collection, which is created
+   * by {@link #ensureIndexes()}.
+   */
+  public void addIndex(MongoIndex index) {
+    indexes.put(index.getName(), index);
+  }
+
+  /**
+   * Creates the declared indexes the collection doesn't have
+   * yet, identifying them by name, so it's safe to call this
+   * on every startup. Existing indexes are left untouched, even
+   * if their declaration changed, and a declaration conflicting
+   * with an existing index with another name fails.
+   *
+   * @return The names of the created indexes.
+   */
+  public List<String> ensureIndexes() {
+    Set<String> existing = new HashSet<>();
+
+    for (Document index : mongoCollection.listIndexes()) {
+      existing.add(index.getString("name"));
+    }
+
+    List<IndexModel> missing = new ArrayList<>();
+
+    for (MongoIndex index : indexes.values()) {
+      if (!existing.contains(index.getName())) {
+        missing.add(index.toIndexModel());
+      }
+    }
+
+    if (missing.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    return mongoCollection.createIndexes(missing);
+  }
+
+  /**
+   * @see #ensureIndexes()
+   */
+  public CompletableFuture<List<String>> ensureIndexesAsync() {
+    return supplyAsync(this::ensureIndexes, executor);
+  }
+
+  /**
+   * Starts explaining a sample of the queries made through this
+   * repository, recording the ones the server ran as a collection
+   * scan because no index supports them. Queries are recorded by
+   * shape, with their values replaced, and explained in a daemon
+   * thread, so explains don't delay the tasks of the executor of
+   * this repository. Sampled queries are dropped if too many of
+   * them are waiting to be explained, and explain failures are
+   * reported to the uncaught exception handler of that thread.
+   * This is meant for debugging, as every explained query runs
+   * again on the server.
+   *
+   * @param sampleRate The fraction of the queries which are
+   *                   explained, between 0 and 1.
+   * @param reporter   The consumer receiving the shape of every
+   *                   unindexed query the first time it's seen.
+   * @see #getUnindexedQueries()
+   */
+  public void enableIndexDiagnostics(
+    double sampleRate,
+    Consumer<String> reporter
+  ) {
+    disableIndexDiagnostics();
+    this.unindexedQueryReporter = reporter;
+    this.explainExecutor = new ThreadPoolExecutor(
+      1,
+      1,
+      0,
+      TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<>(EXPLAIN_QUEUE_SIZE),
+      runnable -> {
+        Thread thread = new Thread(
+          runnable,
+          "sigma-mongo-explain-" + mongoCollection.getNamespace().getFullName()
+        );
+        thread.setDaemon(true);
+
+        return thread;
+      },
+      new ThreadPoolExecutor.DiscardPolicy()
+    );
+    this.explainSampleRate = sampleRate;
+  }
+
+  public void disableIndexDiagnostics() {
+    this.explainSampleRate = 0;
+    this.unindexedQueryReporter = null;
+
+    if (explainExecutor != null) {
+      explainExecutor.shutdown();
+      explainExecutor = null;
+    }
+  }
+
+  /**
+   * @return The shapes of the sampled queries which ran without
+   * a supporting index, with the amount of times they were seen.
+   */
+  public Map<String, Long> getUnindexedQueries() {
+    Map<String, Long> queries = new LinkedHashMap<>();
+    unindexedQueries.forEach((shape, count) -> queries.put(shape, count.sum()));
+
+    return queries;
+  }
+
+  private void sample(Bson filter) {
+    double sampleRate = explainSampleRate;
+    ExecutorService executor = explainExecutor;
+
+    if (sampleRate <= 0 || executor == null || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+      return;
+    }
+
+    // discarded once the diagnostics are disabled
+    executor.execute(() -> {
+      try {
+        explain(filter);
+      } catch (RuntimeException e) {
+        Thread current = Thread.currentThread();
+        current.getUncaughtExceptionHandler().uncaughtException(current, e);
+      }
+    });
+  }
+
+  private void explain(Bson filter) {
+    Document plan = mongoCollection
+      .find(filter)
+      .explain();
+
+    if (!scansCollection(plan.get("queryPlanner"))) {
+      return;
+    }
+
+    String shape = shapeOf(filter.toBsonDocument(BsonDocument.class, mongoCollection.getCodecRegistry()))
+      .asDocument()
+      .toJson();
+    LongAdder count = unindexedQueries.get(shape);
+
+    if (count == null) {
+      LongAdder added = new LongAdder();
+      count = unindexedQueries.putIfAbsent(shape, added);
+
+      if (count == null) {
+        count = added;
+        Consumer<String> reporter = unindexedQueryReporter;
+
+        if (reporter != null) {
+          reporter.accept(shape);
+        }
+      }
+    }
+
+    count.increment();
+  }
+
+  /**
+   * Checks if the winning plan of the given query planner output,
+   * or of any of its shards, has a collection scan stage.
+   */
+  private static boolean scansCollection(Object plan) {
+    if (plan instanceof Document) {
+      Document document = (Document) plan;
+
+      if ("COLLSCAN".equals(document.get("stage"))) {
+        return true;
+      }
+
+      for (Map.Entry<String, Object> entry : document.entrySet()) {
+        if (!entry.getKey().equals("rejectedPlans") && scansCollection(entry.getValue())) {
+          return true;
+        }
+      }
+    } else if (plan instanceof List) {
+      for (Object element : (List<?>) plan) {
+        if (scansCollection(element)) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Replaces the values of the given filter, so queries only
+   * differing in their values have the same shape.
+   */
+  private static BsonValue shapeOf(BsonValue value) {
+    if (value.isDocument()) {
+      BsonDocument shape = new BsonDocument();
+
+      for (Map.Entry<String, BsonValue> entry : value.asDocument().entrySet()) {
+        shape.put(entry.getKey(), shapeOf(entry.getValue()));
+      }
+
+      return shape;
+    }
+
+    if (value.isArray()) {
+      BsonArray shape = new BsonArray();
+
+      for (BsonValue element : value.asArray()) {
+        // the values of $in and similar operators are collapsed
+        if (element.isDocument() || element.isArray() || shape.isEmpty()) {
+          shape.add(shapeOf(element));
+        }
+      }
+
+      return shape;
+    }
+
+    return new BsonString("?");
+  }
+
+  private static <R> FindIterable<R> limit(
+    FindIterable<R> iterable,
+    int limit
+  ) {
+    // a negative limit means a single batch for the driver, so
+    // the partial finders would return only the first batch
+    return limit >= 0 ? iterable.limit(limit) : iterable;
+  }
+
+  private Bson toFilter(Object query) {
     Bson filter;
 
     if (query instanceof Bson) {
@@ -172,6 +1159,8 @@ public class MongoModelRepository<T extends Model>
       throw INVALID_QUERY;
     }
 
-    mongoCollection.deleteMany(filter);
+    sample(filter);
+
+    return filter;
   }
 }
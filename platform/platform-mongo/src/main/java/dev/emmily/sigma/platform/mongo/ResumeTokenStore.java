@@ -0,0 +1,23 @@
+package dev.emmily.sigma.platform.mongo;
+
+import org.bson.BsonDocument;
+
+/**
+ * Persists the resume token of a {@link MongoChangeWatcher},
+ * so the changes made while the watcher was stopped are
+ * applied once it's started again.
+ */
+public interface ResumeTokenStore {
+  /**
+   * @return The last saved token, or null if there isn't any.
+   */
+  BsonDocument load();
+
+  void save(BsonDocument token);
+
+  /**
+   * Removes the saved token, called when it can't be used
+   * to resume anymore.
+   */
+  void clear();
+}
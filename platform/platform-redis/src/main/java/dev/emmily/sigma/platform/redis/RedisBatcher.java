@@ -0,0 +1,347 @@
+package dev.emmily.sigma.platform.redis;
+
+import dev.emmily.sigma.api.Model;
+import dev.emmily.sigma.api.codec.ModelCodec;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.args.ExpiryOption;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import team.unnamed.reflect.identity.TypeReference;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+
+/**
+ * Sends the commands of a {@link RedisModelRepository} touching
+ * several keys in batches, one for every node serving the keys,
+ * and reads the models in those batches.
+ *
+ * @param <T> The type of the read models.
+ */
+class RedisBatcher<T extends Model> {
+  private static final int PARALLEL_DECODE_THRESHOLD = 256;
+  private final RedisConnections connections;
+  private final RedisKeys keys;
+  private final ModelCodec modelCodec;
+  private final TypeReference<T> type;
+  private Executor batchExecutor = ForkJoinPool.commonPool();
+  private RedisStorageMode storageMode = RedisStorageMode.STRING;
+  private RedisTtlPolicy<T> ttlPolicy;
+  private boolean versioned;
+
+  RedisBatcher(
+    RedisConnections connections,
+    RedisKeys keys,
+    ModelCodec modelCodec,
+    TypeReference<T> type,
+    RedisTtlPolicy<T> ttlPolicy
+  ) {
+    this.connections = connections;
+    this.keys = keys;
+    this.modelCodec = modelCodec;
+    this.type = type;
+    this.ttlPolicy = ttlPolicy;
+  }
+
+  void setBatchExecutor(Executor batchExecutor) {
+    this.batchExecutor = batchExecutor;
+  }
+
+  void setStorageMode(RedisStorageMode storageMode) {
+    this.storageMode = storageMode;
+  }
+
+  void setTtlPolicy(RedisTtlPolicy<T> ttlPolicy) {
+    this.ttlPolicy = ttlPolicy;
+  }
+
+  void setVersioned(boolean versioned) {
+    this.versioned = versioned;
+  }
+
+  /**
+   * Fetches the models with the given ids, keeping their order
+   * and skipping the missing ones. When using a cluster, the ids
+   * are grouped by node and the groups are fetched in parallel.
+   */
+  List<T> fetch(List<String> ids) {
+    List<T> models = perNode(ids, keys::formatId, this::fetchBatch);
+
+    if (!connections.isCluster()) {
+      return models;
+    }
+
+    Map<String, T> found = new HashMap<>();
+
+    for (T model : models) {
+      found.put(model.getId(), model);
+    }
+
+    List<T> ordered = new ArrayList<>(models.size());
+
+    for (String id : ids) {
+      T model = found.get(id);
+
+      if (model != null) {
+        ordered.add(model);
+      }
+    }
+
+    return ordered;
+  }
+
+  /**
+   * Fetches the models with the given ids, which are served
+   * by the same node, in a single round trip.
+   */
+  private List<T> fetchBatch(List<String> ids) {
+    if (storageMode == RedisStorageMode.BINARY) {
+      byte[][] batchKeys = new byte[ids.size()][];
+
+      for (int i = 0; i < batchKeys.length; i++) {
+        batchKeys[i] = keys.formatIdBytes(ids.get(i));
+      }
+
+      Supplier<List<byte[]>> response;
+
+      try (Jedis jedis = connections.getResource(keys.formatId(ids.get(0)))) {
+        Pipeline pipeline = jedis.pipelined();
+        response = this.<byte[], byte[]>get(
+          pipeline,
+          batchKeys,
+          (batch, multiKeys) -> batch.mget(multiKeys),
+          (batch, key) -> batch.get(key)
+        );
+        touch(pipeline, ids);
+        pipeline.sync();
+      }
+
+      List<byte[]> values = new ArrayList<>(batchKeys.length);
+
+      for (byte[] value : response.get()) {
+        if (value != null) {
+          values.add(value);
+        }
+      }
+
+      return decode(values, value -> modelCodec.deserializeFromBytes(value, type));
+    }
+
+    if (storageMode == RedisStorageMode.HASH) {
+      List<Response<Map<String, String>>> responses = new ArrayList<>(ids.size());
+
+      try (Jedis jedis = connections.getResource(keys.formatId(ids.get(0)))) {
+        Pipeline pipeline = jedis.pipelined();
+
+        for (String id : ids) {
+          responses.add(pipeline.hgetAll(keys.formatId(id)));
+        }
+
+        touch(pipeline, ids);
+        pipeline.sync();
+      }
+
+      List<Map<String, String>> values = new ArrayList<>(responses.size());
+
+      for (Response<Map<String, String>> response : responses) {
+        if (!response.get().isEmpty()) {
+          values.add(response.get());
+        }
+      }
+
+      return decode(values, value -> modelCodec.deserializeFromMap(value, type));
+    }
+
+    String[] batchKeys = new String[ids.size()];
+
+    for (int i = 0; i < batchKeys.length; i++) {
+      batchKeys[i] = keys.formatId(ids.get(i));
+    }
+
+    Supplier<List<String>> response;
+
+    try (Jedis jedis = connections.getResource(batchKeys[0])) {
+      Pipeline pipeline = jedis.pipelined();
+      response = this.<String, String>get(
+        pipeline,
+        batchKeys,
+        (batch, multiKeys) -> batch.mget(multiKeys),
+        (batch, key) -> batch.get(key)
+      );
+      touch(pipeline, ids);
+      pipeline.sync();
+    }
+
+    List<String> values = new ArrayList<>(batchKeys.length);
+
+    for (String value : response.get()) {
+      if (value != null) {
+        values.add(value);
+      }
+    }
+
+    return decode(values, value -> modelCodec.deserializeFromString(value, type));
+  }
+
+  /**
+   * Queues the reads of the given keys, using a single MGET if
+   * they can be sent in a single command, or a GET per key otherwise.
+   *
+   * @return The supplier of the read values, which can be used
+   * after syncing the pipeline.
+   */
+  private <K, V> Supplier<List<V>> get(
+    Pipeline pipeline,
+    K[] batchKeys,
+    BiFunction<Pipeline, K[], Response<List<V>>> multiGet,
+    BiFunction<Pipeline, K, Response<V>> get
+  ) {
+    if (isMultiKey()) {
+      return multiGet.apply(pipeline, batchKeys)::get;
+    }
+
+    List<Response<V>> responses = new ArrayList<>(batchKeys.length);
+
+    for (K key : batchKeys) {
+      responses.add(get.apply(pipeline, key));
+    }
+
+    return () -> responses.stream()
+      .map(Response::get)
+      .collect(Collectors.toList());
+  }
+
+  /**
+   * Extends the expiration of the given ids if the ttl policy
+   * is sliding, missing keys are ignored by Redis. The GT option
+   * only sets expirations greater than the current ones, so a
+   * read never shortens a longer time to live and never makes a
+   * persistent model expire.
+   */
+  void touch(
+    Pipeline pipeline,
+    List<String> ids
+  ) {
+    if (!ttlPolicy.isSliding()) {
+      return;
+    }
+
+    for (String id : ids) {
+      pipeline.expire(keys.formatId(id), ttlPolicy.getSlidingTtl(), ExpiryOption.GT);
+
+      if (versioned) {
+        // the version key keeps the expiration of the model
+        pipeline.expire(keys.formatVersionId(id), ttlPolicy.getSlidingTtl(), ExpiryOption.GT);
+      }
+    }
+  }
+
+  /**
+   * Decodes the given serialized models keeping their order,
+   * large batches are decoded in parallel.
+   */
+  <V> List<T> decode(
+    List<V> values,
+    Function<V, T> decoder
+  ) {
+    Stream<V> stream = values.size() >= PARALLEL_DECODE_THRESHOLD
+      ? values.parallelStream()
+      : values.stream();
+
+    return stream
+      .map(decoder)
+      .collect(Collectors.toList());
+  }
+
+  /**
+   * Runs the given batch for every group of elements served by
+   * the same node, in parallel if there are several groups, i.e.
+   * when using a cluster. If a node answers that a slot moved,
+   * the elements are grouped again using the new nodes and every
+   * batch is sent again, and if it answers that a slot is being
+   * migrated, the batches are sent again once the migration had
+   * time to finish. The batches only read, expire or delete keys,
+   * so sending them again is harmless. Batches are sent at most
+   * {@link RedisConnections#MAX_REDIRECTIONS} times, waiting longer
+   * before every attempt.
+   *
+   * @return The results of every batch, grouped by node.
+   */
+  <E, R> List<R> perNode(
+    List<E> elements,
+    Function<? super E, String> keyFunction,
+    Function<List<E>, List<R>> batch
+  ) {
+    if (elements.isEmpty()) {
+      return new ArrayList<>();
+    }
+
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return perGroup(connections.groupByNode(elements, keyFunction), batch);
+      } catch (JedisRedirectionException e) {
+        if (attempt == RedisConnections.MAX_REDIRECTIONS) {
+          throw e;
+        }
+
+        RedisConnections.backOff(attempt, e);
+
+        // the keys of a migrating slot are only moved once it's done
+        if (e instanceof JedisMovedDataException) {
+          connections.refresh();
+        }
+      }
+    }
+  }
+
+  private <E, R> List<R> perGroup(
+    Collection<List<E>> groups,
+    Function<List<E>, List<R>> batch
+  ) {
+    if (groups.size() == 1) {
+      return batch.apply(groups.iterator().next());
+    }
+
+    List<CompletableFuture<List<R>>> futures = new ArrayList<>(groups.size());
+
+    for (List<E> group : groups) {
+      futures.add(supplyAsync(() -> batch.apply(group), batchExecutor));
+    }
+
+    List<R> results = new ArrayList<>();
+
+    for (CompletableFuture<List<R>> future : futures) {
+      try {
+        results.addAll(future.join());
+      } catch (CompletionException e) {
+        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+      }
+    }
+
+    return results;
+  }
+
+  /**
+   * @return Whether keys of different models can be sent in a
+   * single command, i.e. whether they're always in the same slot.
+   */
+  boolean isMultiKey() {
+    return !connections.isCluster() || keys.getHashTag() == RedisHashTag.NAMESPACE;
+  }
+}
@@ -0,0 +1,313 @@
+package dev.emmily.sigma.platform.redis;
+
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.ConnectionPool;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import redis.clients.jedis.util.JedisClusterCRC16;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Provides the connections used by a {@link RedisModelRepository},
+ * either to a single server or to the nodes of a Redis Cluster.
+ * The provided connections must be closed after being used, which
+ * returns them to their pool.
+ */
+public abstract class RedisConnections {
+  /**
+   * The maximum amount of times commands are sent after being
+   * redirected, including the first time.
+   */
+  static final int MAX_REDIRECTIONS = 5;
+  private static final long REDIRECTION_BACKOFF_MILLIS = 20;
+
+  public static RedisConnections of(JedisPool jedisPool) {
+    return new Standalone(jedisPool);
+  }
+
+  public static RedisConnections of(JedisCluster cluster) {
+    return new Cluster(cluster);
+  }
+
+  public abstract boolean isCluster();
+
+  /**
+   * @return A connection to the node serving the given key.
+   * @see #execute(String, Function)
+   */
+  public abstract Jedis getResource(String key);
+
+  /**
+   * Runs the given commands using a connection to the node serving
+   * the given key. When using a cluster, the commands are run again
+   * if the node answers that the slot of the key moved, after reloading
+   * the distribution of the slots and waiting a bit longer every time,
+   * or that the key is being migrated, asking the node importing it.
+   * Redirections of the commands queued in a transaction are only
+   * reported as an aborted transaction, which is handled as a moved
+   * slot. The commands are sent at most {@link #MAX_REDIRECTIONS}
+   * times, and must not have effects before the redirected command,
+   * since they may be run several times.
+   *
+   * @return The result of the commands.
+   */
+  public abstract <R> R execute(
+    String key,
+    Function<Jedis, R> commands
+  );
+
+  /**
+   * Splits the given elements by the node serving their keys,
+   * keeping their relative order, so every group can be sent
+   * through a single connection.
+   */
+  public abstract <E> Collection<List<E>> groupByNode(
+    List<E> elements,
+    Function<? super E, String> keyFunction
+  );
+
+  /**
+   * @return The suppliers of connections to every primary node,
+   * used to walk the whole keyspace.
+   */
+  public abstract List<Supplier<Jedis>> getPrimaries();
+
+  /**
+   * Reloads the distribution of the slots across the nodes,
+   * e.g. after the cluster was resharded.
+   */
+  public void refresh() {
+  }
+
+  /**
+   * Waits before sending redirected commands again, twice as long
+   * after every attempt, so the cluster can finish a resharding.
+   *
+   * @param attempt The attempt which was redirected, starting at 1.
+   * @param cause   The redirection, thrown if the wait is interrupted.
+   */
+  static void backOff(
+    int attempt,
+    RuntimeException cause
+  ) {
+    try {
+      Thread.sleep(REDIRECTION_BACKOFF_MILLIS << (attempt - 1));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw cause;
+    }
+  }
+
+  private static class Standalone
+    extends RedisConnections {
+    private final JedisPool jedisPool;
+
+    private Standalone(JedisPool jedisPool) {
+      this.jedisPool = jedisPool;
+    }
+
+    @Override
+    public boolean isCluster() {
+      return false;
+    }
+
+    @Override
+    public Jedis getResource(String key) {
+      return jedisPool.getResource();
+    }
+
+    @Override
+    public <R> R execute(
+      String key,
+      Function<Jedis, R> commands
+    ) {
+      try (Jedis jedis = jedisPool.getResource()) {
+        return commands.apply(jedis);
+      }
+    }
+
+    @Override
+    public <E> Collection<List<E>> groupByNode(
+      List<E> elements,
+      Function<? super E, String> keyFunction
+    ) {
+      return Collections.singletonList(elements);
+    }
+
+    @Override
+    public List<Supplier<Jedis>> getPrimaries() {
+      return Collections.singletonList(jedisPool::getResource);
+    }
+  }
+
+  private static class Cluster
+    extends RedisConnections {
+    private static final int SLOTS = 16384;
+    private final JedisCluster cluster;
+    // the "host:port" of the primary serving every slot
+    private volatile String[] slotNodes;
+
+    private Cluster(JedisCluster cluster) {
+      this.cluster = cluster;
+    }
+
+    @Override
+    public boolean isCluster() {
+      return true;
+    }
+
+    @Override
+    public Jedis getResource(String key) {
+      return getResource(JedisClusterCRC16.getSlot(key));
+    }
+
+    private Jedis getResource(int slot) {
+      ConnectionPool pool = cluster.getClusterNodes().get(nodes()[slot]);
+
+      // the node may not be known by the cluster client yet
+      return new Jedis(pool == null ? cluster.getConnectionFromSlot(slot) : pool.getResource());
+    }
+
+    private Jedis getResource(HostAndPort node) {
+      ConnectionPool pool = cluster.getClusterNodes().get(node.toString());
+
+      return new Jedis(pool == null ? new Connection(node) : pool.getResource());
+    }
+
+    @Override
+    public <R> R execute(
+      String key,
+      Function<Jedis, R> commands
+    ) {
+      int slot = JedisClusterCRC16.getSlot(key);
+      HostAndPort askedNode = null;
+
+      for (int attempt = 1; ; attempt++) {
+        try (Jedis jedis = askedNode == null ? getResource(slot) : getResource(askedNode)) {
+          if (askedNode != null) {
+            jedis.asking();
+          }
+
+          return commands.apply(jedis);
+        } catch (JedisMovedDataException e) {
+          if (attempt == MAX_REDIRECTIONS) {
+            throw e;
+          }
+
+          backOff(attempt, e);
+          refresh();
+          askedNode = null;
+        } catch (JedisAskDataException e) {
+          if (attempt == MAX_REDIRECTIONS) {
+            throw e;
+          }
+
+          // the slot isn't moved yet, so only this attempt is redirected
+          askedNode = e.getTargetNode();
+        } catch (JedisDataException e) {
+          // the queued commands of a transaction sent to the wrong node
+          // are rejected, which is only reported when executing it
+          if (attempt == MAX_REDIRECTIONS || e.getMessage() == null
+            || !e.getMessage().startsWith("EXECABORT")) {
+            throw e;
+          }
+
+          backOff(attempt, e);
+          refresh();
+          askedNode = null;
+        }
+      }
+    }
+
+    @Override
+    public <E> Collection<List<E>> groupByNode(
+      List<E> elements,
+      Function<? super E, String> keyFunction
+    ) {
+      String[] nodes = nodes();
+      Map<String, List<E>> groups = new LinkedHashMap<>();
+
+      for (E element : elements) {
+        groups.computeIfAbsent(
+          nodes[JedisClusterCRC16.getSlot(keyFunction.apply(element))],
+          node -> new ArrayList<>()
+        ).add(element);
+      }
+
+      return groups.values();
+    }
+
+    @Override
+    public List<Supplier<Jedis>> getPrimaries() {
+      String[] nodes = nodes();
+      Map<String, Integer> firstSlots = new LinkedHashMap<>();
+
+      for (int slot = 0; slot < nodes.length; slot++) {
+        if (nodes[slot] != null) {
+          firstSlots.putIfAbsent(nodes[slot], slot);
+        }
+      }
+
+      List<Supplier<Jedis>> primaries = new ArrayList<>(firstSlots.size());
+
+      for (int slot : firstSlots.values()) {
+        primaries.add(() -> getResource(slot));
+      }
+
+      return primaries;
+    }
+
+    private String[] nodes() {
+      String[] nodes = slotNodes;
+
+      if (nodes == null) {
+        refresh();
+        nodes = slotNodes;
+      }
+
+      return nodes;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized void refresh() {
+      String[] nodes = new String[SLOTS];
+      List<Object> ranges;
+
+      try (Jedis jedis = new Jedis(cluster.getConnectionFromSlot(0))) {
+        ranges = jedis.clusterSlots();
+      }
+
+      // every range is [start, end, [host, port, id], replicas...]
+      for (Object range : ranges) {
+        List<Object> info = (List<Object>) range;
+        List<Object> primary = (List<Object>) info.get(2);
+        String node = SafeEncoder.encode((byte[]) primary.get(0)) + ":" + primary.get(1);
+
+        Arrays.fill(
+          nodes,
+          ((Long) info.get(0)).intValue(),
+          ((Long) info.get(1)).intValue() + 1,
+          node
+        );
+      }
+
+      slotNodes = nodes;
+    }
+  }
+}
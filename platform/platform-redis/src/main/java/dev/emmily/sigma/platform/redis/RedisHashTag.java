@@ -0,0 +1,27 @@
+package dev.emmily.sigma.platform.redis;
+
+/**
+ * Decides which part of the keys of a {@link RedisModelRepository}
+ * is wrapped in a hash tag, i.e. which part Redis Cluster hashes
+ * to choose the slot of a key. Keys in the same slot can be used
+ * together in multi-key commands, transactions and scripts.
+ */
+public enum RedisHashTag {
+  /**
+   * Keys aren't tagged, which can only be used with a single server.
+   */
+  NONE,
+  /**
+   * The id is tagged, so the keys of a model (e.g. the model and
+   * its version) share a slot while the models are spread across
+   * the cluster.
+   */
+  ID,
+  /**
+   * The namespace and type are tagged, so every key of the repository
+   * shares a slot. Multi-key commands and secondary indexes work as
+   * with a single server, but the repository isn't spread across the
+   * cluster.
+   */
+  NAMESPACE
+}
@@ -0,0 +1,81 @@
+package dev.emmily.sigma.platform.redis;
+
+import dev.emmily.sigma.api.Model;
+
+import java.util.function.Function;
+
+/**
+ * A secondary index of a {@link RedisModelRepository}, which
+ * is updated along with the models in the same transaction.
+ * Equality indexes store a sorted set of ids for every indexed
+ * value, scored 0 so the ids are read in pages with ZRANGEBYLEX,
+ * while sorted indexes store a single sorted set scored by the
+ * indexed number, supporting ranges and ordering.
+ *
+ * @param <T> The type of the indexed models.
+ * @see RedisQuery
+ */
+public class RedisIndex<T extends Model> {
+  private final String name;
+  private final Function<? super T, ?> extractor;
+  private final boolean sorted;
+
+  private RedisIndex(
+    String name,
+    Function<? super T, ?> extractor,
+    boolean sorted
+  ) {
+    this.name = name;
+    this.extractor = extractor;
+    this.sorted = sorted;
+  }
+
+  /**
+   * @param name      The name of the index.
+   * @param extractor The function extracting the indexed value,
+   *                  which is compared using its string form.
+   *                  Models with a null value aren't indexed.
+   */
+  public static <T extends Model> RedisIndex<T> equality(
+    String name,
+    Function<? super T, ?> extractor
+  ) {
+    return new RedisIndex<>(name, extractor, false);
+  }
+
+  /**
+   * @param name      The name of the index.
+   * @param extractor The function extracting the score of the
+   *                  model. Models with a null score aren't indexed.
+   */
+  public static <T extends Model> RedisIndex<T> sorted(
+    String name,
+    Function<? super T, ? extends Number> extractor
+  ) {
+    return new RedisIndex<>(name, extractor, true);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public boolean isSorted() {
+    return sorted;
+  }
+
+  /**
+   * @return The indexed value of the given model in its stored
+   * form, or null if the model isn't indexed.
+   */
+  public String valueOf(T model) {
+    Object value = extractor.apply(model);
+
+    if (value == null) {
+      return null;
+    }
+
+    return sorted
+      ? Double.toString(((Number) value).doubleValue())
+      : String.valueOf(value);
+  }
+}
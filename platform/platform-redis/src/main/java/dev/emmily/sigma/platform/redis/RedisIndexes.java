@@ -0,0 +1,380 @@
+package dev.emmily.sigma.platform.redis;
+
+import dev.emmily.sigma.api.Model;
+import dev.emmily.sigma.api.repository.Page;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.resps.Tuple;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Maintains and queries the secondary indexes of a
+ * {@link RedisModelRepository}. Index entries are written in
+ * the same transactions as the models, and the entries of the
+ * models found missing when querying are pruned.
+ *
+ * @param <T> The type of the indexed models.
+ */
+class RedisIndexes<T extends Model> {
+  private final RedisConnections connections;
+  private final RedisKeys keys;
+  private final Map<String, RedisIndex<T>> indexes = new LinkedHashMap<>();
+
+  RedisIndexes(
+    RedisConnections connections,
+    RedisKeys keys
+  ) {
+    this.connections = connections;
+    this.keys = keys;
+  }
+
+  void add(RedisIndex<T> index) {
+    indexes.put(index.getName(), index);
+  }
+
+  boolean isEmpty() {
+    return indexes.isEmpty();
+  }
+
+  /**
+   * Runs the given writes in a transaction which also moves the
+   * model with the given id to the entries of its current index
+   * values. The previous index values of the model are read from
+   * a hash kept along with the model, which is watched so the
+   * transaction is retried if a concurrent write changed them.
+   *
+   * @param id    The id of the written model.
+   * @param model The written model, or null if it's deleted.
+   * @param write The writes of the model.
+   */
+  void transact(
+    String id,
+    T model,
+    Consumer<Transaction> write
+  ) {
+    transact(id, model, null, write);
+  }
+
+  /**
+   * Runs the given writes as {@link #transact(String, Model, Consumer)}
+   * does, only if the given precondition holds. The model key and
+   * its version key are watched too, so the precondition is checked
+   * again if they change before the transaction is executed.
+   *
+   * @param precondition The check run on the watched keys before
+   *                     writing, or null if there's none.
+   * @return Whether the precondition held and the writes were applied.
+   */
+  boolean transact(
+    String id,
+    T model,
+    Predicate<Jedis> precondition,
+    Consumer<Transaction> write
+  ) {
+    String indexedKey = keys.formatIndexedId(id);
+
+    return connections.execute(indexedKey, jedis -> {
+      List<Object> result;
+
+      do {
+        if (precondition == null) {
+          jedis.watch(indexedKey);
+        } else {
+          jedis.watch(indexedKey, keys.formatId(id), keys.formatVersionId(id));
+
+          if (!precondition.test(jedis)) {
+            jedis.unwatch();
+            return false;
+          }
+        }
+
+        Map<String, String> previous = jedis.hgetAll(indexedKey);
+        Map<String, String> current = new HashMap<>();
+        Transaction transaction = jedis.multi();
+        write.accept(transaction);
+
+        for (RedisIndex<T> index : indexes.values()) {
+          String previousValue = previous.get(index.getName());
+          String value = model == null ? null : index.valueOf(model);
+
+          if (previousValue != null && !previousValue.equals(value)) {
+            transaction.zrem(keys.formatIndexKey(index.getName(), index.isSorted() ? null : previousValue), id);
+          }
+
+          if (value == null) {
+            continue;
+          }
+
+          current.put(index.getName(), value);
+
+          if (index.isSorted()) {
+            transaction.zadd(keys.formatIndexKey(index.getName(), null), Double.parseDouble(value), id);
+          } else {
+            // every id has the same score, so they're ordered by their bytes
+            transaction.zadd(keys.formatIndexKey(index.getName(), value), 0, id);
+          }
+        }
+
+        transaction.del(indexedKey);
+
+        if (!current.isEmpty()) {
+          transaction.hset(indexedKey, current);
+        }
+
+        // a null result means a watched key changed
+        result = transaction.exec();
+      } while (result == null);
+
+      return true;
+    });
+  }
+
+  /**
+   * @throws IllegalArgumentException If there's no index of the
+   *                                  kind of the given query.
+   */
+  void check(RedisQuery query) {
+    RedisIndex<T> index = indexes.get(query.getIndex());
+
+    if (index == null || index.isSorted() != query.isRange()) {
+      throw new IllegalArgumentException(
+        "No " + (query.isRange() ? "sorted" : "equality") + " index named " + query.getIndex()
+      );
+    }
+  }
+
+  /**
+   * Reads the ids matching the given query from its index,
+   * in the order of the index.
+   */
+  List<String> findIds(
+    RedisQuery query,
+    int limit
+  ) {
+    check(query);
+
+    if (limit == 0) {
+      return Collections.emptyList();
+    }
+
+    return connections.execute(keys.formatIndexKey(query.getIndex(), null), jedis -> {
+      if (!query.isRange()) {
+        String key = keys.formatIndexKey(query.getIndex(), query.getValue());
+
+        return limit < 0
+          ? jedis.zrangeByLex(key, "-", "+")
+          : jedis.zrangeByLex(key, "-", "+", 0, limit);
+      }
+
+      String key = keys.formatIndexKey(query.getIndex(), null);
+
+      if (query.isDescending()) {
+        return limit < 0
+          ? jedis.zrevrangeByScore(key, query.getMax(), query.getMin())
+          : jedis.zrevrangeByScore(key, query.getMax(), query.getMin(), 0, limit);
+      }
+
+      return limit < 0
+        ? jedis.zrangeByScore(key, query.getMin(), query.getMax())
+        : jedis.zrangeByScore(key, query.getMin(), query.getMax(), 0, limit);
+    });
+  }
+
+  /**
+   * Counts the entries matching the given query using ZCARD
+   * or ZCOUNT.
+   */
+  long count(RedisQuery query) {
+    check(query);
+    String key = keys.formatIndexKey(query.getIndex(), query.isRange() ? null : query.getValue());
+
+    return connections.execute(key, jedis -> query.isRange()
+      ? jedis.zcount(key, query.getMin(), query.getMax())
+      : jedis.zcard(key));
+  }
+
+  /**
+   * Reads a page of the ids matching the given query. Range
+   * queries are paged in the order of their sorted index, by
+   * score and then by id as Redis orders them, and equality
+   * queries are paged by id, in the byte order Redis uses.
+   * Only the entries of the page are read.
+   */
+  Page<String> findPage(
+    RedisQuery query,
+    String continuation,
+    int size
+  ) {
+    check(query);
+
+    if (query.isRange()) {
+      return findSortedPage(query, continuation, size);
+    }
+
+    String from = continuation == null ? "-" : "(" + Page.decodeContinuation(continuation);
+    String key = keys.formatIndexKey(query.getIndex(), query.getValue());
+    // one more id tells whether there's a next page
+    List<String> ids = connections.execute(key, jedis -> jedis.zrangeByLex(key, from, "+", 0, size + 1));
+
+    if (ids.size() <= size) {
+      return Page.of(ids, null);
+    }
+
+    List<String> pageIds = ids.subList(0, size);
+
+    return Page.of(pageIds, Page.encodeContinuation(pageIds.get(size - 1)));
+  }
+
+  /**
+   * Pages a sorted index using the score and the id of the last
+   * entry of the previous page, the entries with the same score
+   * are skipped until that id is passed.
+   */
+  private Page<String> findSortedPage(
+    RedisQuery query,
+    String continuation,
+    int size
+  ) {
+    String key = keys.formatIndexKey(query.getIndex(), null);
+    boolean descending = query.isDescending();
+    double to = descending ? query.getMin() : query.getMax();
+    String decoded = continuation == null ? null : Page.decodeContinuation(continuation);
+    int separator = decoded == null ? 0 : decoded.indexOf(':');
+
+    if (separator == -1) {
+      throw new IllegalArgumentException("Invalid continuation token: " + continuation);
+    }
+
+    double lastScore = decoded == null ? 0 : Double.parseDouble(decoded.substring(0, separator));
+    String lastId = decoded == null ? null : decoded.substring(separator + 1);
+    double from = decoded == null ? (descending ? query.getMax() : query.getMin()) : lastScore;
+    List<Tuple> entries = connections.execute(key, jedis -> {
+      List<Tuple> read = new ArrayList<>(size + 1);
+      int offset = 0;
+
+      while (read.size() <= size) {
+        int count = size + 1 - read.size();
+        List<Tuple> batch = descending
+          ? jedis.zrevrangeByScoreWithScores(key, from, to, offset, count)
+          : jedis.zrangeByScoreWithScores(key, from, to, offset, count);
+
+        for (Tuple entry : batch) {
+          if (lastId != null && entry.getScore() == lastScore) {
+            int comparison = compareMembers(entry.getElement(), lastId);
+
+            if (descending ? comparison >= 0 : comparison <= 0) {
+              continue;
+            }
+          }
+
+          read.add(entry);
+        }
+
+        if (batch.size() < count) {
+          break;
+        }
+
+        offset += batch.size();
+      }
+
+      return read;
+    });
+
+    List<String> ids = new ArrayList<>(Math.min(entries.size(), size));
+
+    for (int i = 0; i < entries.size() && i < size; i++) {
+      ids.add(entries.get(i).getElement());
+    }
+
+    if (entries.size() <= size) {
+      return Page.of(ids, null);
+    }
+
+    Tuple last = entries.get(size - 1);
+
+    return Page.of(ids, Page.encodeContinuation(last.getScore() + ":" + last.getElement()));
+  }
+
+  /**
+   * Removes the index entries of the given ids which weren't found
+   * among the given models, read using those ids.
+   *
+   * @return The given models.
+   */
+  List<T> prune(
+    List<String> ids,
+    List<T> models
+  ) {
+    if (models.size() == ids.size()) {
+      return models;
+    }
+
+    Set<String> found = new HashSet<>();
+
+    for (T model : models) {
+      found.add(model.getId());
+    }
+
+    List<String> missing = new ArrayList<>();
+
+    for (String id : ids) {
+      if (!found.contains(id)) {
+        missing.add(id);
+      }
+    }
+
+    prune(missing);
+
+    return models;
+  }
+
+  /**
+   * Removes the index entries of the given ids, which were matched
+   * by an index but whose models don't exist anymore, e.g. because
+   * they expired. The models are checked again in the transaction
+   * removing the entries, so a model written since then keeps them.
+   */
+  void prune(List<String> ids) {
+    for (String id : ids) {
+      transact(
+        id,
+        null,
+        jedis -> !jedis.exists(keys.formatId(id)),
+        // left by versioned repositories, missing otherwise
+        transaction -> transaction.del(keys.formatVersionId(id))
+      );
+    }
+  }
+
+  /**
+   * Compares the given members as Redis does, by their bytes.
+   */
+  private static int compareMembers(
+    String first,
+    String second
+  ) {
+    byte[] firstBytes = first.getBytes(StandardCharsets.UTF_8);
+    byte[] secondBytes = second.getBytes(StandardCharsets.UTF_8);
+
+    for (int i = 0; i < firstBytes.length && i < secondBytes.length; i++) {
+      int comparison = Integer.compare(firstBytes[i] & 0xFF, secondBytes[i] & 0xFF);
+
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+
+    return Integer.compare(firstBytes.length, secondBytes.length);
+  }
+}
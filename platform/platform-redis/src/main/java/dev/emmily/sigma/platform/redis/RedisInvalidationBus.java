@@ -0,0 +1,145 @@
+package dev.emmily.sigma.platform.redis;
+
+import dev.emmily.sigma.api.invalidation.InvalidationBus;
+import dev.emmily.sigma.api.invalidation.InvalidationListener;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An {@link InvalidationBus} backed by a Redis pub/sub channel.
+ * Messages published while the subscription is being established
+ * are lost, so the listeners are told that every model may have
+ * changed every time the subscription is (re)established.
+ */
+public class RedisInvalidationBus
+  implements InvalidationBus, Closeable {
+  private static final long RESUBSCRIBE_DELAY = 1000;
+  private final RedisConnections connections;
+  private final String channel;
+  private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+  private final Subscriber subscriber = new Subscriber();
+  private final Thread thread;
+  private volatile boolean running = true;
+
+  /**
+   * @param connections The connections used to publish and
+   *                    subscribe. Messages are broadcast to every
+   *                    node when using a cluster, so any node is
+   *                    used.
+   * @param channel     The name of the channel.
+   */
+  public RedisInvalidationBus(
+    RedisConnections connections,
+    String channel
+  ) {
+    this.connections = connections;
+    this.channel = channel;
+    this.thread = new Thread(this::subscribe, "sigma-redis-invalidations-" + channel);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public RedisInvalidationBus(
+    JedisPool jedisPool,
+    String channel
+  ) {
+    this(RedisConnections.of(jedisPool), channel);
+  }
+
+  @Override
+  public void publish(
+    String origin,
+    Collection<String> ids
+  ) {
+    // the first line is the origin of the message
+    StringBuilder message = new StringBuilder(origin);
+
+    for (String id : ids) {
+      message.append('\n').append(id);
+    }
+
+    try (Jedis jedis = connections.getResource(channel)) {
+      jedis.publish(channel, message.toString());
+    }
+  }
+
+  @Override
+  public void subscribe(InvalidationListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void unsubscribe(InvalidationListener listener) {
+    listeners.remove(listener);
+  }
+
+  private void dispatch(
+    String origin,
+    Collection<String> ids
+  ) {
+    for (InvalidationListener listener : listeners) {
+      listener.onInvalidation(origin, ids);
+    }
+  }
+
+  private void subscribe() {
+    while (running) {
+      try (Jedis jedis = connections.getResource(channel)) {
+        jedis.subscribe(subscriber, channel);
+      } catch (JedisException e) {
+        if (!running) {
+          return;
+        }
+
+        dispatch(null, Collections.emptyList());
+
+        try {
+          Thread.sleep(RESUBSCRIBE_DELAY);
+        } catch (InterruptedException interrupted) {
+          return;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    running = false;
+
+    if (subscriber.isSubscribed()) {
+      subscriber.unsubscribe();
+    }
+
+    thread.interrupt();
+  }
+
+  private class Subscriber
+    extends JedisPubSub {
+    @Override
+    public void onSubscribe(
+      String channel,
+      int subscribedChannels
+    ) {
+      // anything published before subscribing was missed
+      dispatch(null, Collections.emptyList());
+    }
+
+    @Override
+    public void onMessage(
+      String channel,
+      String message
+    ) {
+      List<String> lines = Arrays.asList(message.split("\n", -1));
+      dispatch(lines.get(0), lines.subList(1, lines.size()));
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package dev.emmily.sigma.platform.redis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Formats the keys used by a {@link RedisModelRepository}, which
+ * are prefixed by its namespace and type, and tagged according
+ * to its {@link RedisHashTag}.
+ */
+class RedisKeys {
+  private final String namespace;
+  private final String typeNamespace;
+  private RedisHashTag hashTag;
+  private byte[] keyPrefix;
+  private byte[] keySuffix;
+
+  RedisKeys(
+    String namespace,
+    String typeNamespace,
+    RedisHashTag hashTag
+  ) {
+    this.namespace = namespace;
+    this.typeNamespace = typeNamespace;
+    setHashTag(hashTag);
+  }
+
+  RedisHashTag getHashTag() {
+    return hashTag;
+  }
+
+  void setHashTag(RedisHashTag hashTag) {
+    this.hashTag = hashTag;
+    String key = formatId("");
+    this.keySuffix = hashTag == RedisHashTag.ID ? new byte[]{'}'} : new byte[0];
+    this.keyPrefix = key.substring(0, key.length() - keySuffix.length).getBytes(StandardCharsets.UTF_8);
+  }
+
+  String formatId(String id) {
+    return formatKey(":", id);
+  }
+
+  /**
+   * Binary version of {@link #formatId(String)}, which
+   * reuses the encoded prefix of the keys.
+   */
+  byte[] formatIdBytes(String id) {
+    byte[] encodedId = id.getBytes(StandardCharsets.UTF_8);
+    byte[] key = Arrays.copyOf(keyPrefix, keyPrefix.length + encodedId.length + keySuffix.length);
+    System.arraycopy(encodedId, 0, key, keyPrefix.length, encodedId.length);
+    System.arraycopy(keySuffix, 0, key, keyPrefix.length + encodedId.length, keySuffix.length);
+
+    return key;
+  }
+
+  /**
+   * @return The key holding the version of the model with the
+   * given id, placed outside the keys matched by the "namespace:type:*"
+   * pattern.
+   */
+  String formatVersionId(String id) {
+    return formatKey("#version:", id);
+  }
+
+  /**
+   * @return The key of the sorted set holding the ids with the
+   * given value for an equality index, all of them scored 0, or
+   * the key of the sorted set of a sorted index if the value is null.
+   */
+  String formatIndexKey(
+    String index,
+    String value
+  ) {
+    String key = formatNamespace() + "#index:" + index;
+
+    return value == null ? key : key + ":" + value;
+  }
+
+  /**
+   * @return The key of the hash holding the index values
+   * of the model with the given id.
+   */
+  String formatIndexedId(String id) {
+    return formatKey("#indexed:", id);
+  }
+
+  /**
+   * @return The "namespace:type" prefix of every key, which is
+   * the hash tag when using {@link RedisHashTag#NAMESPACE}.
+   */
+  String formatNamespace() {
+    String prefix = namespace + ":" + typeNamespace;
+
+    return hashTag == RedisHashTag.NAMESPACE ? "{" + prefix + "}" : prefix;
+  }
+
+  /**
+   * @return The id of the model stored in the given key.
+   */
+  String idOf(String key) {
+    return key.substring(formatId("").length() - keySuffix.length, key.length() - keySuffix.length);
+  }
+
+  private String formatKey(
+    String separator,
+    String id
+  ) {
+    String key = formatNamespace() + separator;
+
+    return hashTag == RedisHashTag.ID ? key + "{" + id + "}" : key + id;
+  }
+}
@@ -1,48 +1,160 @@
 package dev.emmily.sigma.platform.redis;
 
 import dev.emmily.sigma.api.Model;
+import dev.emmily.sigma.api.VersionedModel;
 import dev.emmily.sigma.api.codec.ModelCodec;
+import dev.emmily.sigma.api.invalidation.InvalidationBus;
 import dev.emmily.sigma.api.repository.AsyncModelRepository;
 import dev.emmily.sigma.api.repository.ModelRepository;
+import dev.emmily.sigma.api.repository.Page;
+import dev.emmily.sigma.api.repository.WriteResult;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.params.ScanParams;
 import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.resps.ScanResult;
 import team.unnamed.reflect.identity.TypeReference;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import static java.util.concurrent.CompletableFuture.runAsync;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
 
 public class RedisModelRepository<T extends Model>
   extends AsyncModelRepository<T>
   implements ModelRepository<T> {
   private static final IllegalArgumentException INVALID_QUERY = new IllegalArgumentException(
-    "RedisModelService only accepts queries of type String"
+    "RedisModelService only accepts queries of type String and RedisQuery"
+  );
+  private static final int MGET_BATCH_SIZE = 500;
+  private static final byte[] STRING_PAYLOAD = {'s'};
+  private static final byte[] HASH_PAYLOAD = {'h'};
+  // KEYS: model, version
+  // ARGV: expected version, ttl, payload type ('s' or 'h'), payload...
+  // the version of a missing model is 0, even if its version key is left
+  private static final RedisScript COMPARE_AND_SET = new RedisScript(
+    "local current = 0\n" +
+      "if redis.call('EXISTS', KEYS[1]) == 1 then\n" +
+      "  current = tonumber(redis.call('GET', KEYS[2]) or '0')\n" +
+      "end\n" +
+      "if current ~= tonumber(ARGV[1]) then\n" +
+      "  return {0, current}\n" +
+      "end\n" +
+      "if ARGV[3] == 'h' then\n" +
+      "  redis.call('DEL', KEYS[1])\n" +
+      "  redis.call('HSET', KEYS[1], unpack(ARGV, 4))\n" +
+      "else\n" +
+      "  redis.call('SET', KEYS[1], ARGV[4])\n" +
+      "end\n" +
+      "local version = current + 1\n" +
+      "redis.call('SET', KEYS[2], version)\n" +
+      "local ttl = tonumber(ARGV[2])\n" +
+      "if ttl > 0 then\n" +
+      "  redis.call('EXPIRE', KEYS[1], ttl)\n" +
+      "  redis.call('EXPIRE', KEYS[2], ttl)\n" +
+      "end\n" +
+      "return {1, version}"
   );
-  private final JedisPool jedisPool;
+  private final RedisConnections connections;
   private final ModelCodec modelCodec;
   private final String namespace;
   private final TypeReference<T> type;
   private final String typeNamespace;
-  private final int ttl;
+  private final RedisKeys keys;
+  private final RedisIndexes<T> indexes;
+  private final RedisBatcher<T> batcher;
+  private RedisTtlPolicy<T> ttlPolicy;
+  private int scanCount = 1000;
+  private int maxUpdateAttempts = 16;
+  private boolean versioned;
+  private RedisStorageMode storageMode = RedisStorageMode.STRING;
+  private RedisNearCache<T> nearCache;
+  private RedisInvalidationBus nearCacheBus;
 
+  /**
+   * @param connections The connections to a single server or to a
+   *                    cluster, in which case the ids of the models
+   *                    are used as hash tags by default.
+   * @see #setHashTag(RedisHashTag)
+   */
   public RedisModelRepository(
     Executor executor,
-    JedisPool jedisPool,
+    RedisConnections connections,
     ModelCodec modelCodec,
     String namespace,
     TypeReference<T> type,
     int ttl
   ) {
     super(executor);
-    this.jedisPool = jedisPool;
+    this.connections = connections;
     this.modelCodec = modelCodec;
     this.namespace = namespace;
     this.type = type;
     this.typeNamespace = type.getTypeName();
-    this.ttl = ttl;
+    this.ttlPolicy = RedisTtlPolicy.fixed(ttl);
+    this.keys = new RedisKeys(
+      namespace,
+      typeNamespace,
+      connections.isCluster() ? RedisHashTag.ID : RedisHashTag.NONE
+    );
+    this.indexes = new RedisIndexes<>(connections, keys);
+    this.batcher = new RedisBatcher<>(connections, keys, modelCodec, type, ttlPolicy);
+  }
+
+  public RedisModelRepository(
+    Executor executor,
+    RedisConnections connections,
+    ModelCodec modelCodec,
+    String namespace,
+    Class<T> type,
+    int ttl
+  ) {
+    this(
+      executor,
+      connections,
+      modelCodec,
+      namespace,
+      TypeReference.of(type),
+      ttl
+    );
+  }
+
+  public RedisModelRepository(
+    Executor executor,
+    JedisPool jedisPool,
+    ModelCodec modelCodec,
+    String namespace,
+    TypeReference<T> type,
+    int ttl
+  ) {
+    this(
+      executor,
+      RedisConnections.of(jedisPool),
+      modelCodec,
+      namespace,
+      type,
+      ttl
+    );
   }
 
   public RedisModelRepository(
@@ -99,36 +211,556 @@ public class RedisModelRepository<T extends Model>
 
   @Override
   public void create(T model) {
-    try (Jedis jedis = jedisPool.getResource()) {
-      jedis.set(
+    if (!indexes.isEmpty()) {
+      indexes.transact(model.getId(), model, transaction -> write(transaction, model));
+    } else if (versioned || storageMode == RedisStorageMode.HASH) {
+      connections.execute(formatModel(model), jedis -> {
+        Transaction transaction = jedis.multi();
+        write(transaction, model);
+
+        return transaction.exec();
+      });
+    } else if (storageMode == RedisStorageMode.BINARY) {
+      connections.execute(formatModel(model), jedis -> jedis.set(
+        formatIdBytes(model.getId()),
+        modelCodec.serializeAsBytes(model),
+        setParams(model)
+      ));
+    } else {
+      connections.execute(formatModel(model), jedis -> jedis.set(
+        formatModel(model),
+        modelCodec.serializeAsString(model),
+        setParams(model)
+      ));
+    }
+
+    if (nearCache != null) {
+      nearCache.invalidate(Collections.singletonList(model.getId()));
+      nearCache.put(model);
+    }
+  }
+
+  private void write(
+    Transaction transaction,
+    T model
+  ) {
+    if (storageMode == RedisStorageMode.STRING) {
+      transaction.set(
         formatModel(model),
         modelCodec.serializeAsString(model),
-        SetParams.setParams().ex(ttl)
+        setParams(model)
       );
+    } else if (storageMode == RedisStorageMode.BINARY) {
+      transaction.set(
+        formatIdBytes(model.getId()),
+        modelCodec.serializeAsBytes(model),
+        setParams(model)
+      );
+    } else {
+      // the hash is replaced, so removed properties don't survive
+      String key = formatModel(model);
+      transaction.del(key);
+      transaction.hset(key, modelCodec.serializeAsMap(model));
+      int ttl = ttlPolicy.ttlOf(model);
+
+      if (ttl > 0) {
+        transaction.expire(key, ttl);
+      }
+    }
+
+    expireVersion(transaction, model.getId(), ttlPolicy.ttlOf(model));
+  }
+
+  /**
+   * Gives the version key of a model the expiration of the model,
+   * if this repository is versioned, so the version is never lost
+   * while the model is still stored, which would let a writer
+   * holding an older version succeed.
+   */
+  private void expireVersion(
+    Transaction transaction,
+    String id,
+    int ttl
+  ) {
+    if (!versioned) {
+      return;
+    }
+
+    if (ttl > 0) {
+      transaction.expire(formatVersionId(id), ttl);
+    } else {
+      transaction.persist(formatVersionId(id));
+    }
+  }
+
+  /**
+   * Writes only the given properties of the model. When using
+   * the {@link RedisStorageMode#HASH hash storage mode} only
+   * the given hash fields are sent and set, while the string
+   * and binary storage modes have to write the whole model.
+   *
+   * @param model      The updated model.
+   * @param properties The names of the updated top-level properties.
+   */
+  public void update(
+    T model,
+    String... properties
+  ) {
+    if (storageMode != RedisStorageMode.HASH) {
+      create(model);
+      return;
+    }
+
+    String key = formatModel(model);
+    Map<String, String> serialized = modelCodec.serializeAsMap(model);
+    Map<String, String> changed = new HashMap<>();
+    List<String> removed = new ArrayList<>();
+
+    for (String property : properties) {
+      String value = serialized.get(property);
+
+      if (value == null) {
+        removed.add(property);
+      } else {
+        changed.put(property, value);
+      }
+    }
+
+    int ttl = ttlPolicy.ttlOf(model);
+    Consumer<Transaction> write = transaction -> {
+      if (!changed.isEmpty()) {
+        transaction.hset(key, changed);
+      }
+
+      if (!removed.isEmpty()) {
+        transaction.hdel(key, removed.toArray(new String[0]));
+      }
+
+      if (ttl > 0) {
+        transaction.expire(key, ttl);
+      } else {
+        transaction.persist(key);
+      }
+
+      expireVersion(transaction, model.getId(), ttl);
+    };
+
+    if (indexes.isEmpty()) {
+      connections.execute(key, jedis -> {
+        Transaction transaction = jedis.multi();
+        write.accept(transaction);
+
+        return transaction.exec();
+      });
+    } else {
+      indexes.transact(model.getId(), model, write);
+    }
+
+    if (nearCache != null) {
+      nearCache.invalidate(Collections.singletonList(model.getId()));
+    }
+  }
+
+  /**
+   * @see #update(Model, String...)
+   */
+  public CompletableFuture<?> updateAsync(
+    T model,
+    String... properties
+  ) {
+    return runAsync(() -> update(model, properties), executor);
+  }
+
+  /**
+   * Writes the given model only if its stored version is the
+   * expected one, checking the version and writing the model in
+   * a single round trip using a server-side script. Every applied
+   * write increments the version of the model, which is stored in
+   * a separate key expiring along with the model, a missing model
+   * has version 0. Writes made with {@link #create(Model)} don't
+   * change the version. Versioned writes must be enabled with
+   * {@link #setVersioned(boolean)}. If there are secondary indexes, the version
+   * is checked in a WATCH/MULTI transaction instead, which writes
+   * the model, its version and its index entries atomically.
+   *
+   * @param model           The model to write.
+   * @param expectedVersion The version read along with the model,
+   *                        0 if the model must not exist.
+   * @return The result of the write, holding the new version if
+   * it was applied or the current version if it wasn't.
+   * @throws IllegalStateException If this repository isn't versioned.
+   * @see #findVersioned(String)
+   */
+  public WriteResult compareAndSet(
+    T model,
+    long expectedVersion
+  ) {
+    checkVersioned();
+    WriteResult result = indexes.isEmpty()
+      ? compareAndSetScript(model, expectedVersion)
+      : compareAndSetIndexed(model, expectedVersion);
+
+    if (result.isApplied() && nearCache != null) {
+      nearCache.invalidate(Collections.singletonList(model.getId()));
+    }
+
+    return result;
+  }
+
+  private WriteResult compareAndSetScript(
+    T model,
+    long expectedVersion
+  ) {
+    List<byte[]> args = new ArrayList<>();
+    args.add(encode(Long.toString(expectedVersion)));
+    args.add(encode(Integer.toString(ttlPolicy.ttlOf(model))));
+
+    if (storageMode == RedisStorageMode.HASH) {
+      args.add(HASH_PAYLOAD);
+
+      for (Map.Entry<String, String> property : modelCodec.serializeAsMap(model).entrySet()) {
+        args.add(encode(property.getKey()));
+        args.add(encode(property.getValue()));
+      }
+    } else {
+      args.add(STRING_PAYLOAD);
+      args.add(storageMode == RedisStorageMode.BINARY
+        ? modelCodec.serializeAsBytes(model)
+        : encode(modelCodec.serializeAsString(model)));
+    }
+
+    List<?> reply = connections.execute(formatModel(model), jedis -> (List<?>) COMPARE_AND_SET.eval(
+      jedis,
+      Arrays.asList(formatIdBytes(model.getId()), encode(formatVersionId(model.getId()))),
+      args
+    ));
+
+    long version = (Long) reply.get(1);
+
+    return (Long) reply.get(0) == 0
+      ? WriteResult.conflict(version)
+      : WriteResult.applied(version);
+  }
+
+  private WriteResult compareAndSetIndexed(
+    T model,
+    long expectedVersion
+  ) {
+    String id = model.getId();
+    AtomicLong current = new AtomicLong();
+    boolean applied = indexes.transact(id, model, jedis -> {
+      current.set(readVersion(jedis, id));
+
+      return current.get() == expectedVersion;
+    }, transaction -> {
+      transaction.set(formatVersionId(id), Long.toString(expectedVersion + 1));
+      write(transaction, model);
+    });
+
+    return applied
+      ? WriteResult.applied(expectedVersion + 1)
+      : WriteResult.conflict(current.get());
+  }
+
+  /**
+   * Reads the version of a model as the compare-and-set script
+   * does, the version of a missing model is 0.
+   */
+  private long readVersion(
+    Jedis jedis,
+    String id
+  ) {
+    Pipeline pipeline = jedis.pipelined();
+    Response<Boolean> exists = pipeline.exists(formatId(id));
+    Response<String> version = pipeline.get(formatVersionId(id));
+    pipeline.sync();
+
+    return exists.get() && version.get() != null ? Long.parseLong(version.get()) : 0;
+  }
+
+  /**
+   * Writes the given model with {@link #compareAndSet(Model, long)},
+   * expecting the version of the model, so the version stored in the
+   * model and the version key always match.
+   *
+   * @throws IllegalStateException If this repository isn't versioned.
+   */
+  @Override
+  public WriteResult createVersioned(T model) {
+    checkVersioned();
+    VersionedModel versioned = VersionedModel.of(model);
+    long expectedVersion = versioned.getVersion();
+    versioned.setVersion(expectedVersion + 1);
+
+    WriteResult result = compareAndSet(model, expectedVersion);
+
+    if (result.isConflict()) {
+      versioned.setVersion(expectedVersion);
+    }
+
+    return result;
+  }
+
+  /**
+   * @see #compareAndSet(Model, long)
+   */
+  public CompletableFuture<WriteResult> compareAndSetAsync(
+    T model,
+    long expectedVersion
+  ) {
+    return supplyAsync(() -> compareAndSet(model, expectedVersion), executor);
+  }
+
+  /**
+   * Reads a model together with its version in a single
+   * round trip, bypassing the near cache.
+   *
+   * @throws IllegalStateException If this repository isn't versioned.
+   * @see #compareAndSet(Model, long)
+   */
+  public VersionStamped<T> findVersioned(String id) {
+    checkVersioned();
+    String versionKey = formatVersionId(id);
+
+    return connections.execute(formatId(id), jedis -> {
+      T model;
+      String version;
+
+      if (storageMode == RedisStorageMode.HASH) {
+        Pipeline pipeline = jedis.pipelined();
+        Response<Map<String, String>> properties = pipeline.hgetAll(formatId(id));
+        Response<String> pendingVersion = pipeline.get(versionKey);
+        pipeline.sync();
+        model = properties.get().isEmpty() ? null : modelCodec.deserializeFromMap(properties.get(), type);
+        version = pendingVersion.get();
+      } else if (storageMode == RedisStorageMode.BINARY) {
+        List<byte[]> values = jedis.mget(formatIdBytes(id), encode(versionKey));
+        model = values.get(0) == null ? null : modelCodec.deserializeFromBytes(values.get(0), type);
+        version = values.get(1) == null ? null : new String(values.get(1), StandardCharsets.UTF_8);
+      } else {
+        List<String> values = jedis.mget(formatId(id), versionKey);
+        model = values.get(0) == null ? null : modelCodec.deserializeFromString(values.get(0), type);
+        version = values.get(1);
+      }
+
+      return new VersionStamped<>(model, model == null || version == null ? 0 : Long.parseLong(version));
+    });
+  }
+
+  /**
+   * Atomically updates a model, reading it along with its version,
+   * applying the given function and writing the result with
+   * {@link #compareAndSet(Model, long)}. If another writer changed
+   * the model in the meantime, the update is retried with the new
+   * model, at most {@link #setMaxUpdateAttempts(int)} times.
+   *
+   * @param id      The id of the updated model.
+   * @param updater The function computing the new model from the
+   *                current one, which is null if it doesn't exist.
+   *                It may be called several times, and must not
+   *                return null, models are removed using
+   *                {@link #delete(String)}.
+   * @return The result of the last attempt.
+   * @throws IllegalArgumentException If the updater returns null.
+   */
+  public WriteResult update(
+    String id,
+    UnaryOperator<T> updater
+  ) {
+    WriteResult result = null;
+
+    for (int attempt = 0; attempt < maxUpdateAttempts; attempt++) {
+      VersionStamped<T> current = findVersioned(id);
+      T updated = updater.apply(current.getModel());
+
+      if (updated == null) {
+        throw new IllegalArgumentException("The updater of the model " + id + " returned null");
+      }
+
+      result = compareAndSet(updated, current.getVersion());
+
+      if (result.isApplied()) {
+        break;
+      }
     }
+
+    return result;
+  }
+
+  /**
+   * @see #update(String, UnaryOperator)
+   */
+  public CompletableFuture<WriteResult> updateAsync(
+    String id,
+    UnaryOperator<T> updater
+  ) {
+    return supplyAsync(() -> update(id, updater), executor);
   }
 
   @Override
   public boolean exists(String id) {
-    try (Jedis jedis = jedisPool.getResource()) {
-      return jedis.exists(formatId(id));
-    }
+    return connections.execute(formatId(id), jedis -> jedis.exists(formatId(id)));
   }
 
   @Override
   public T find(String id) {
-    try (Jedis jedis = jedisPool.getResource()) {
-      String formattedId = formatId(id);
-      
-      if (!jedis.exists(formattedId)) {
-        return null;  
-      }
-      
-      return modelCodec.deserializeFromString(
-        jedis.get(formattedId),
-        type
-      );
+    if (nearCache == null) {
+      return load(id);
+    }
+
+    T model = nearCache.get(id);
+
+    if (model != null) {
+      return model;
+    }
+
+    long generation = nearCache.generation();
+    model = load(id);
+
+    if (model != null) {
+      nearCache.put(model, generation);
     }
+
+    return model;
+  }
+
+  private T load(String id) {
+    String key = formatId(id);
+
+    if (storageMode == RedisStorageMode.BINARY) {
+      byte[] value = connections.execute(key, jedis -> {
+        if (!ttlPolicy.isSliding()) {
+          return jedis.get(formatIdBytes(id));
+        }
+
+        Pipeline pipeline = jedis.pipelined();
+        Response<byte[]> response = pipeline.get(formatIdBytes(id));
+        batcher.touch(pipeline, Collections.singletonList(id));
+        pipeline.sync();
+
+        return response.get();
+      });
+
+      return value == null ? null : modelCodec.deserializeFromBytes(value, type);
+    }
+
+    if (storageMode == RedisStorageMode.HASH) {
+      Map<String, String> properties = connections.execute(key, jedis -> {
+        if (!ttlPolicy.isSliding()) {
+          return jedis.hgetAll(key);
+        }
+
+        Pipeline pipeline = jedis.pipelined();
+        Response<Map<String, String>> response = pipeline.hgetAll(key);
+        batcher.touch(pipeline, Collections.singletonList(id));
+        pipeline.sync();
+
+        return response.get();
+      });
+
+      return properties.isEmpty() ? null : modelCodec.deserializeFromMap(properties, type);
+    }
+
+    String value = connections.execute(key, jedis -> {
+      if (!ttlPolicy.isSliding()) {
+        return jedis.get(key);
+      }
+
+      Pipeline pipeline = jedis.pipelined();
+      Response<String> response = pipeline.get(key);
+      batcher.touch(pipeline, Collections.singletonList(id));
+      pipeline.sync();
+
+      return response.get();
+    });
+
+    if (value == null) {
+      return null;
+    }
+
+    return modelCodec.deserializeFromString(value, type);
+  }
+
+  /**
+   * Finds a model only reading the given properties, the rest
+   * of the properties are left with their default values. When
+   * using the {@link RedisStorageMode#HASH hash storage mode} only
+   * the given hash fields are transferred, while the string and
+   * binary storage modes have to read the whole model.
+   *
+   * @param id         The id of the model.
+   * @param properties The names of the read top-level properties.
+   * @return The partially read model, or null if it doesn't exist.
+   */
+  public T findPartial(
+    String id,
+    String... properties
+  ) {
+    List<T> models = findManyPartial(Collections.singletonList(id), properties);
+
+    return models.isEmpty() ? null : models.get(0);
+  }
+
+  /**
+   * @see #findPartial(String, String...)
+   */
+  public CompletableFuture<T> findPartialAsync(
+    String id,
+    String... properties
+  ) {
+    return supplyAsync(() -> findPartial(id, properties), executor);
+  }
+
+  /**
+   * Finds the models with the given ids only reading the given
+   * properties, the reads are pipelined.
+   *
+   * @see #findPartial(String, String...)
+   */
+  public List<T> findManyPartial(
+    List<String> ids,
+    String... properties
+  ) {
+    if (storageMode != RedisStorageMode.HASH) {
+      return findMany(ids);
+    }
+
+    List<Map<String, String>> values = batcher.perNode(ids, this::formatId, group -> {
+      List<Response<List<String>>> responses = new ArrayList<>(group.size());
+
+      try (Jedis jedis = connections.getResource(formatId(group.get(0)))) {
+        Pipeline pipeline = jedis.pipelined();
+
+        for (String id : group) {
+          responses.add(pipeline.hmget(formatId(id), properties));
+        }
+
+        batcher.touch(pipeline, group);
+        pipeline.sync();
+      }
+
+      List<Map<String, String>> partials = new ArrayList<>(responses.size());
+
+      for (Response<List<String>> response : responses) {
+        List<String> fields = response.get();
+        Map<String, String> partial = new HashMap<>();
+
+        for (int i = 0; i < properties.length; i++) {
+          if (fields.get(i) != null) {
+            partial.put(properties[i], fields.get(i));
+          }
+        }
+
+        // a missing hash has no fields at all
+        if (!partial.isEmpty()) {
+          partials.add(partial);
+        }
+      }
+
+      return partials;
+    });
+
+    return batcher.decode(values, value -> modelCodec.deserializeFromMap(value, type));
   }
 
   @Override
@@ -136,7 +768,13 @@ public class RedisModelRepository<T extends Model>
     if (query instanceof String) {
       return find((String) query);
     }
-    
+
+    if (query instanceof RedisQuery) {
+      List<T> models = findManyByQuery(query, 1);
+
+      return models.isEmpty() ? null : models.get(0);
+    }
+
     throw INVALID_QUERY;
   }
 
@@ -145,77 +783,308 @@ public class RedisModelRepository<T extends Model>
     List<String> ids,
     int limit
   ) {
-    try (Jedis jedis = jedisPool.getResource()) {
-      List<T> models = new ArrayList<>();
-      
-      for (String id : ids) {
-        if (limit-- == 0) {
-          break;
-        }
-        
-        String formattedId = formatId(id);
+    if (limit == 0) {
+      return Collections.emptyList();
+    }
 
-        if (!jedis.exists(formattedId)) {
-          continue;
-        }
+    if (nearCache == null) {
+      return loadMany(ids, limit);
+    }
+
+    Map<String, T> found = new HashMap<>();
+    List<String> missing = new ArrayList<>();
+
+    for (String id : ids) {
+      T model = nearCache.get(id);
+
+      if (model == null) {
+        missing.add(id);
+      } else {
+        found.put(id, model);
+      }
+    }
+
+    if (!missing.isEmpty()) {
+      long generation = nearCache.generation();
+
+      for (T model : loadMany(missing, -1)) {
+        found.put(model.getId(), model);
+        nearCache.put(model, generation);
+      }
+    }
+
+    List<T> models = new ArrayList<>();
+
+    for (String id : ids) {
+      T model = found.get(id);
+
+      if (model == null) {
+        continue;
+      }
+
+      models.add(model);
+
+      if (models.size() == limit) {
+        break;
+      }
+    }
+
+    return models;
+  }
+
+  private List<T> loadMany(
+    List<String> ids,
+    int limit
+  ) {
+    List<T> models = new ArrayList<>();
+
+    for (int start = 0; start < ids.size(); start += MGET_BATCH_SIZE) {
+      List<String> batch = ids.subList(start, Math.min(ids.size(), start + MGET_BATCH_SIZE));
 
-        models.add(modelCodec.deserializeFromString(
-          jedis.get(formattedId),
-          type
-        ));
+      for (T model : batcher.fetch(batch)) {
+        models.add(model);
+
+        if (models.size() == limit) {
+          return models;
+        }
       }
-      
-      return models;
     }
+
+    return models;
   }
 
+  /**
+   * Finds the models matching the given query, which is either
+   * a String id or a {@link RedisQuery}. Models matched by an
+   * index but expired since then are skipped, so less models than
+   * the given limit may be returned even if more of them match.
+   * The index entries of the skipped models are removed.
+   */
   @Override
   public List<T> findManyByQuery(
     Object query,
     int limit
   ) {
+    if (query instanceof RedisQuery) {
+      List<String> ids = indexes.findIds((RedisQuery) query, limit);
+
+      // no more than the found ids are requested, so every id was read
+      return indexes.prune(ids, findMany(ids, limit));
+    }
+
     return Collections.singletonList(findByQuery(query));
   }
 
+  /**
+   * Finds the ids matching the given query, which is either a
+   * String id or a {@link RedisQuery}. Ids matched by an index
+   * whose models expired since then are skipped, and their index
+   * entries are removed.
+   */
   @Override
-  public List<T> findAll() {
-    try (Jedis jedis = jedisPool.getResource()) {
-      List<T> models = new ArrayList<>();
-      
-      for (String key : jedis.keys(formatId("*"))) {
-        models.add(modelCodec.deserializeFromString(
-          jedis.get(key),
-          type
-        ));
+  public List<String> findIds(
+    Object query,
+    int limit
+  ) {
+    if (query instanceof String) {
+      return limit != 0 && exists((String) query)
+        ? Collections.singletonList((String) query)
+        : Collections.emptyList();
+    }
+
+    if (!(query instanceof RedisQuery)) {
+      throw INVALID_QUERY;
+    }
+
+    List<String> ids = new ArrayList<>(indexes.findIds((RedisQuery) query, limit));
+    Set<String> existing = existsMany(ids);
+    List<String> missing = new ArrayList<>();
+
+    for (String id : ids) {
+      if (!existing.contains(id)) {
+        missing.add(id);
       }
-      
-      return models;
     }
+
+    indexes.prune(missing);
+    ids.removeIf(id -> !existing.contains(id));
+
+    return ids;
   }
 
+  /**
+   * Counts the models matching the given query using ZCARD or
+   * ZCOUNT, without reading the matching ids. The index entries
+   * of expired models are counted too, until a query reading them
+   * removes them, so the count is only exact if the models don't
+   * expire.
+   */
   @Override
-  public void delete(String id) {
-    try (Jedis jedis = jedisPool.getResource()) {
-      jedis.del(formatId(id));
+  public long count(
+    Object query,
+    int limit
+  ) {
+    if (query instanceof String) {
+      return limit != 0 && exists((String) query) ? 1 : 0;
+    }
+
+    if (!(query instanceof RedisQuery)) {
+      throw INVALID_QUERY;
     }
+
+    long count = indexes.count((RedisQuery) query);
+
+    return limit < 0 ? count : Math.min(count, limit);
   }
 
+  /**
+   * Checks the existence of the given ids with EXISTS commands
+   * pipelined by node.
+   */
   @Override
-  public void deleteByQuery(Object query) {
+  public Set<String> existsMany(List<String> ids) {
+    List<String> existing = batcher.perNode(ids, this::formatId, group -> {
+      List<Response<Boolean>> responses = new ArrayList<>(group.size());
+
+      try (Jedis jedis = connections.getResource(formatId(group.get(0)))) {
+        Pipeline pipeline = jedis.pipelined();
+
+        for (String id : group) {
+          responses.add(pipeline.exists(formatId(id)));
+        }
+
+        pipeline.sync();
+      }
+
+      List<String> found = new ArrayList<>();
+
+      for (int i = 0; i < group.size(); i++) {
+        if (responses.get(i).get()) {
+          found.add(group.get(i));
+        }
+      }
+
+      return found;
+    });
+
+    return new HashSet<>(existing);
+  }
+
+  /**
+   * Finds a page of the models matching the given query, which is
+   * either a String id or a {@link RedisQuery}. Range queries are
+   * paged in the order of their sorted index, by score and then by
+   * id as Redis orders them, reading only the entries of the page.
+   * Equality queries are paged by id, in the byte order Redis uses,
+   * reading only the ids of the page with ZRANGEBYLEX. Models expired
+   * since they were indexed are skipped, so pages may be smaller
+   * than the given size, and their index entries are removed.
+   */
+  @Override
+  public Page<T> findPage(
+    Object query,
+    String continuation,
+    int size
+  ) {
+    Page.checkSize(size);
+
     if (query instanceof String) {
-      delete((String) query);
+      T model = continuation == null ? find((String) query) : null;
+
+      return Page.of(model == null ? Collections.emptyList() : Collections.singletonList(model), null);
     }
 
-    throw INVALID_QUERY;
+    if (!(query instanceof RedisQuery)) {
+      throw INVALID_QUERY;
+    }
+
+    Page<String> ids = indexes.findPage((RedisQuery) query, continuation, size);
+
+    return Page.of(indexes.prune(ids.getItems(), batcher.fetch(ids.getItems())), ids.getContinuation());
+  }
+
+  @Override
+  public List<T> findAll() {
+    List<T> models = new ArrayList<>();
+    streamAll(models::add);
+
+    return models;
+  }
+
+  /**
+   * Iterates the models of this repository using SCAN, which,
+   * unlike KEYS, doesn't block the server while walking the
+   * keyspace. Every page of keys is fetched with a single MGET,
+   * or a pipeline of HGETALL when using the hash storage mode,
+   * and handed to the consumer before requesting the next one.
+   * As every SCAN-based iteration, models created or deleted
+   * while iterating may or may not be seen.
+   *
+   * @param consumer The consumer receiving the models.
+   * @see #setScanCount(int)
+   */
+  public void streamAll(Consumer<? super T> consumer) {
+    scan(formatId("*"), page -> {
+      List<String> ids = new ArrayList<>(page.size());
+
+      for (String key : page) {
+        ids.add(keys.idOf(key));
+      }
+
+      batcher.fetch(ids).forEach(consumer);
+    });
+  }
+
+  /**
+   * @see #streamAll(Consumer)
+   */
+  public CompletableFuture<?> streamAllAsync(Consumer<? super T> consumer) {
+    return runAsync(() -> streamAll(consumer), executor);
+  }
+
+  @Override
+  public void delete(String id) {
+    if (indexes.isEmpty()) {
+      connections.execute(formatId(id), jedis -> jedis.del(keysOf(id)));
+    } else {
+      indexes.transact(id, null, transaction -> transaction.del(keysOf(id)));
+    }
+
+    if (nearCache != null) {
+      nearCache.invalidate(Collections.singletonList(id));
+    }
+  }
+
+  @Override
+  public void deleteByQuery(Object query) {
+    deleteManyByQuery(query, 1);
   }
 
   @Override
   public void deleteMany(List<String> ids) {
-    try (Jedis jedis = jedisPool.getResource()) {
+    if (indexes.isEmpty()) {
+      batcher.perNode(ids, this::formatId, group -> {
+        try (Jedis jedis = connections.getResource(formatId(group.get(0)))) {
+          Pipeline pipeline = jedis.pipelined();
+
+          for (String id : group) {
+            pipeline.del(keysOf(id));
+          }
+
+          pipeline.sync();
+        }
+
+        return Collections.emptyList();
+      });
+    } else {
       for (String id : ids) {
-        jedis.del(formatId(id));
+        indexes.transact(id, null, transaction -> transaction.del(keysOf(id)));
       }
     }
+
+    if (nearCache != null) {
+      nearCache.invalidate(ids);
+    }
   }
 
   @Override
@@ -223,14 +1092,351 @@ public class RedisModelRepository<T extends Model>
     Object query,
     int limit
   ) {
-    deleteByQuery(query);
+    if (query instanceof String) {
+      delete((String) query);
+    } else if (query instanceof RedisQuery) {
+      deleteMany(indexes.findIds((RedisQuery) query, limit));
+    } else {
+      throw INVALID_QUERY;
+    }
+  }
+
+  /**
+   * Deletes every model of this repository, walking the
+   * keyspace with SCAN and removing every page of keys
+   * with a single UNLINK, so neither the lookup nor the
+   * deletion blocks the server.
+   *
+   * @return The amount of deleted models.
+   */
+  public long deleteAll() {
+    AtomicLong deleted = new AtomicLong();
+
+    scan(formatId("*"), keys -> deleted.addAndGet(unlink(keys)));
+    scan(formatVersionId("*"), this::unlink);
+    // matches both the index entries and the indexed values
+    scan(keys.formatNamespace() + "#index*", this::unlink);
+
+    if (nearCache != null) {
+      nearCache.invalidateAll();
+    }
+
+    return deleted.get();
+  }
+
+  /**
+   * @see #deleteAll()
+   */
+  public CompletableFuture<Long> deleteAllAsync() {
+    return supplyAsync(this::deleteAll, executor);
+  }
+
+  /**
+   * Declares a secondary index, which is queried using
+   * {@link RedisQuery}. Models already stored aren't indexed
+   * until they're written again, or {@link #reindex()} is
+   * called. The index entries don't expire along with the
+   * models, expired models are skipped when querying and their
+   * entries are removed then. When using
+   * a cluster, the indexes are updated in the same transactions
+   * as the models, so {@link RedisHashTag#NAMESPACE} must be used.
+   *
+   * @throws IllegalStateException If the namespace isn't tagged
+   *                               when using a cluster.
+   */
+  public void addIndex(RedisIndex<T> index) {
+    if (connections.isCluster() && keys.getHashTag() != RedisHashTag.NAMESPACE) {
+      throw new IllegalStateException("Secondary indexes require the NAMESPACE hash tag when using a cluster");
+    }
+
+    indexes.add(index);
+  }
+
+  /**
+   * Updates the index entries of every stored model, walking
+   * the models with {@link #streamAll(Consumer)}.
+   */
+  public void reindex() {
+    streamAll(model -> indexes.transact(model.getId(), model, transaction -> {}));
+  }
+
+  /**
+   * @see #reindex()
+   */
+  public CompletableFuture<?> reindexAsync() {
+    return runAsync(this::reindex, executor);
+  }
+
+  /**
+   * Sets the layout used to store the models, models already
+   * stored with another layout aren't converted, so the
+   * storage mode must be chosen before writing any model.
+   */
+  public void setStorageMode(RedisStorageMode storageMode) {
+    this.storageMode = storageMode;
+    batcher.setStorageMode(storageMode);
+  }
+
+  /**
+   * Places an in-process cache in front of Redis, which serves
+   * {@link #find(String)} and {@link #findMany(List, int)} without
+   * a network hop. Writes and deletes made through this repository
+   * are published in the given bus, so the near caches of the other
+   * processes evict them. Writes made without using a repository
+   * aren't noticed, the time to live bounds how long such writes
+   * may be missed.
+   *
+   * @param bus         The bus shared by the near caches.
+   * @param maximumSize The maximum amount of models held in memory.
+   * @param ttlMillis   The time a model is held in memory after
+   *                    being loaded.
+   */
+  public void enableNearCache(
+    InvalidationBus bus,
+    int maximumSize,
+    long ttlMillis
+  ) {
+    disableNearCache();
+    this.nearCache = new RedisNearCache<>(bus, maximumSize, ttlMillis);
+  }
+
+  /**
+   * Enables the near cache using a {@link RedisInvalidationBus}
+   * over the "namespace:type:invalidations" channel.
+   *
+   * @see #enableNearCache(InvalidationBus, int, long)
+   */
+  public void enableNearCache(
+    int maximumSize,
+    long ttlMillis
+  ) {
+    RedisInvalidationBus bus = new RedisInvalidationBus(
+      connections,
+      namespace + ":" + typeNamespace + ":invalidations"
+    );
+    enableNearCache(bus, maximumSize, ttlMillis);
+    this.nearCacheBus = bus;
+  }
+
+  public void disableNearCache() {
+    if (nearCache != null) {
+      nearCache.close();
+      nearCache = null;
+    }
+
+    if (nearCacheBus != null) {
+      nearCacheBus.close();
+      nearCacheBus = null;
+    }
+  }
+
+  /**
+   * Sets the policy deciding the expiration of the models, which
+   * replaces the fixed time to live given in the constructor.
+   * When the policy is sliding, every read extends the expiration
+   * of the read models using EXPIRE commands with the GT option,
+   * pipelined with the reads, so persistent models and models with
+   * a longer time to live aren't affected. The GT option requires
+   * Redis 7.0. Reads served by the near cache don't reach Redis,
+   * so they don't extend it.
+   */
+  public void setTtlPolicy(RedisTtlPolicy<T> ttlPolicy) {
+    this.ttlPolicy = ttlPolicy;
+    batcher.setTtlPolicy(ttlPolicy);
+  }
+
+  /**
+   * Enables the versioned writes made with {@link #compareAndSet(Model, long)},
+   * which keep the version of every model in a separate key. Plain
+   * writes of a versioned repository are sent in a transaction which
+   * also gives the version key the expiration of the model, while
+   * the other repositories write every model with a single SET. It
+   * must be enabled before writing any model.
+   */
+  public void setVersioned(boolean versioned) {
+    this.versioned = versioned;
+    batcher.setVersioned(versioned);
+  }
+
+  /**
+   * Sets the maximum amount of times {@link #update(String, UnaryOperator)}
+   * tries to write a model before reporting the conflict.
+   */
+  public void setMaxUpdateAttempts(int maxUpdateAttempts) {
+    this.maxUpdateAttempts = maxUpdateAttempts;
+  }
+
+  /**
+   * Sets the part of the keys used as hash tag, which must be
+   * chosen before writing any model. Multi-key commands are
+   * only sent for keys of different models if they share a slot,
+   * otherwise the commands of every key are pipelined instead.
+   *
+   * @throws IllegalArgumentException If the keys aren't tagged when
+   *                                  using a cluster, or the namespace
+   *                                  isn't tagged when using a cluster
+   *                                  and secondary indexes.
+   */
+  public void setHashTag(RedisHashTag hashTag) {
+    if (connections.isCluster() && hashTag != RedisHashTag.NAMESPACE
+      && (hashTag == RedisHashTag.NONE || !indexes.isEmpty())) {
+      throw new IllegalArgumentException("Hash tag " + hashTag + " can't be used with this cluster repository");
+    }
+
+    keys.setHashTag(hashTag);
+  }
+
+  /**
+   * Sets the executor running the batches sent to the nodes of a
+   * cluster in parallel, the common pool is used by default.
+   */
+  public void setBatchExecutor(Executor batchExecutor) {
+    batcher.setBatchExecutor(batchExecutor);
+  }
+
+  /**
+   * Sets the COUNT hint of the SCAN commands issued by this
+   * repository, bigger values mean less round trips but
+   * longer server-side iterations.
+   */
+  public void setScanCount(int scanCount) {
+    this.scanCount = scanCount;
+  }
+
+  /**
+   * Walks the keys matching the given pattern, scanning every
+   * primary node when using a cluster.
+   */
+  private void scan(
+    String pattern,
+    Consumer<List<String>> pageConsumer
+  ) {
+    ScanParams params = new ScanParams()
+      .match(pattern)
+      .count(scanCount);
+
+    for (Supplier<Jedis> primary : connections.getPrimaries()) {
+      String cursor = ScanParams.SCAN_POINTER_START;
+
+      do {
+        ScanResult<String> result;
+
+        try (Jedis jedis = primary.get()) {
+          result = jedis.scan(cursor, params);
+        }
+
+        if (!result.getResult().isEmpty()) {
+          pageConsumer.accept(result.getResult());
+        }
+
+        cursor = result.getCursor();
+      } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+    }
+  }
+
+  /**
+   * Removes the given keys without blocking the server.
+   *
+   * @return The amount of removed keys.
+   */
+  private long unlink(List<String> scannedKeys) {
+    long unlinked = 0;
+
+    for (long count : batcher.perNode(scannedKeys, Function.identity(), group -> {
+      try (Jedis jedis = connections.getResource(group.get(0))) {
+        if (batcher.isMultiKey()) {
+          return Collections.singletonList(jedis.unlink(group.toArray(new String[0])));
+        }
+
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<Long>> responses = new ArrayList<>(group.size());
+
+        for (String key : group) {
+          responses.add(pipeline.unlink(key));
+        }
+
+        pipeline.sync();
+
+        return responses.stream()
+          .map(Response::get)
+          .collect(Collectors.toList());
+      }
+    })) {
+      unlinked += count;
+    }
+
+    return unlinked;
+  }
+
+  private void checkVersioned() {
+    if (!versioned) {
+      throw new IllegalStateException("Versioned writes require setVersioned(true)");
+    }
+  }
+
+  /**
+   * @return The keys of the model with the given id, including
+   * its version key if this repository is versioned.
+   */
+  private String[] keysOf(String id) {
+    return versioned
+      ? new String[]{formatId(id), formatVersionId(id)}
+      : new String[]{formatId(id)};
+  }
+
+  private static byte[] encode(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private SetParams setParams(T model) {
+    int ttl = ttlPolicy.ttlOf(model);
+    SetParams params = SetParams.setParams();
+
+    return ttl > 0 ? params.ex(ttl) : params;
   }
 
   public String formatId(String id) {
-    return namespace + ":" + typeNamespace + ":" + id;
+    return keys.formatId(id);
   }
 
   public String formatModel(T model) {
     return formatId(model.getId());
   }
+
+  /**
+   * @return The key holding the version of the model with the
+   * given id, placed outside the keys matched by the "namespace:type:*"
+   * pattern.
+   */
+  public String formatVersionId(String id) {
+    return keys.formatVersionId(id);
+  }
+
+  /**
+   * @return The key of the sorted set holding the ids with the
+   * given value for an equality index, all of them scored 0, or
+   * the key of the sorted set of a sorted index if the value is null.
+   */
+  public String formatIndexKey(
+    String index,
+    String value
+  ) {
+    return keys.formatIndexKey(index, value);
+  }
+
+  /**
+   * @return The key of the hash holding the index values
+   * of the model with the given id.
+   */
+  public String formatIndexedId(String id) {
+    return keys.formatIndexedId(id);
+  }
+
+  /**
+   * Binary version of {@link #formatId(String)}, which
+   * reuses the encoded prefix of the keys.
+   */
+  public byte[] formatIdBytes(String id) {
+    return keys.formatIdBytes(id);
+  }
 }
@@ -0,0 +1,156 @@
+package dev.emmily.sigma.platform.redis;
+
+import dev.emmily.sigma.api.Model;
+import dev.emmily.sigma.api.invalidation.InvalidationBus;
+import dev.emmily.sigma.api.invalidation.InvalidationListener;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * An in-process cache placed in front of a {@link RedisModelRepository},
+ * bounded by size and by a time to live. Every instance publishes the
+ * ids of the models written or deleted through it in an
+ * {@link InvalidationBus}, usually a {@link RedisInvalidationBus}, and
+ * evicts the ids published by the other instances linked to the same
+ * bus, so cached models stay coherent between processes.
+ *
+ * @param <T> The type of model held by this cache.
+ */
+public class RedisNearCache<T extends Model>
+  implements Closeable {
+  private final InvalidationBus bus;
+  private final int maximumSize;
+  private final long ttlMillis;
+  private final String nodeId = UUID.randomUUID().toString();
+  private final Map<String, Entry<T>> entries;
+  private final InvalidationListener listener;
+  private long generation;
+
+  /**
+   * @param bus         The bus shared by the near caches.
+   * @param maximumSize The maximum amount of cached models, the least
+   *                    recently used models are evicted first.
+   * @param ttlMillis   The time a model stays cached after being loaded.
+   */
+  public RedisNearCache(
+    InvalidationBus bus,
+    int maximumSize,
+    long ttlMillis
+  ) {
+    this.bus = bus;
+    this.maximumSize = maximumSize;
+    this.ttlMillis = ttlMillis;
+    this.entries = new LinkedHashMap<String, Entry<T>>(16, 0.75F, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry<T>> eldest) {
+        return size() > RedisNearCache.this.maximumSize;
+      }
+    };
+    this.listener = (origin, ids) -> {
+      if (!nodeId.equals(origin)) {
+        evict(ids);
+      }
+    };
+    bus.subscribe(listener);
+  }
+
+  public synchronized T get(String id) {
+    Entry<T> entry = entries.get(id);
+
+    if (entry == null) {
+      return null;
+    }
+
+    if (entry.expiration < System.currentTimeMillis()) {
+      entries.remove(id);
+      return null;
+    }
+
+    return entry.model;
+  }
+
+  /**
+   * @return A stamp which must be obtained before reading
+   * models from Redis and then passed to {@link #put(Model, long)},
+   * so models invalidated during the read aren't cached.
+   */
+  public synchronized long generation() {
+    return generation;
+  }
+
+  /**
+   * Caches the given model if nothing was invalidated since
+   * the given generation was obtained.
+   */
+  public synchronized void put(
+    T model,
+    long generation
+  ) {
+    if (this.generation != generation) {
+      return;
+    }
+
+    entries.put(model.getId(), new Entry<>(model, System.currentTimeMillis() + ttlMillis));
+  }
+
+  /**
+   * Caches a model which was just written by this process.
+   */
+  public synchronized void put(T model) {
+    put(model, generation);
+  }
+
+  /**
+   * Evicts the given ids and tells the other instances to
+   * evict them too.
+   */
+  public void invalidate(Collection<String> ids) {
+    evict(ids);
+    bus.publish(nodeId, ids);
+  }
+
+  /**
+   * Evicts every model and tells the other instances to
+   * evict every model too.
+   */
+  public void invalidateAll() {
+    invalidate(Collections.emptyList());
+  }
+
+  private synchronized void evict(Collection<String> ids) {
+    generation++;
+
+    if (ids.isEmpty()) {
+      entries.clear();
+      return;
+    }
+
+    for (String id : ids) {
+      entries.remove(id);
+    }
+  }
+
+  @Override
+  public void close() {
+    bus.unsubscribe(listener);
+    evict(Collections.emptyList());
+  }
+
+  private static class Entry<T> {
+    private final T model;
+    private final long expiration;
+
+    private Entry(
+      T model,
+      long expiration
+    ) {
+      this.model = model;
+      this.expiration = expiration;
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package dev.emmily.sigma.platform.redis;
+
+/**
+ * A query over a {@link RedisIndex}, accepted by the query
+ * methods of {@link RedisModelRepository}. The matching ids
+ * are read from the index and the models are then fetched
+ * in batches.
+ */
+public class RedisQuery {
+  private final String index;
+  private final String value;
+  private final double min;
+  private final double max;
+  private final boolean descending;
+
+  private RedisQuery(
+    String index,
+    String value,
+    double min,
+    double max,
+    boolean descending
+  ) {
+    this.index = index;
+    this.value = value;
+    this.min = min;
+    this.max = max;
+    this.descending = descending;
+  }
+
+  /**
+   * Matches the models whose value for the given equality
+   * index has the same string form as the given value.
+   */
+  public static RedisQuery eq(
+    String index,
+    Object value
+  ) {
+    return new RedisQuery(index, String.valueOf(value), 0, 0, false);
+  }
+
+  /**
+   * Matches the models whose score for the given sorted index
+   * is between the given bounds, both inclusive, in ascending
+   * order.
+   */
+  public static RedisQuery range(
+    String index,
+    double min,
+    double max
+  ) {
+    return new RedisQuery(index, null, min, max, false);
+  }
+
+  /**
+   * Matches every model indexed by the given sorted index,
+   * in ascending order.
+   */
+  public static RedisQuery sortedBy(String index) {
+    return range(index, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * @return A copy of this range query returning the models
+   * in descending order, e.g. to read the top of a leaderboard.
+   */
+  public RedisQuery descending() {
+    return new RedisQuery(index, value, min, max, true);
+  }
+
+  public String getIndex() {
+    return index;
+  }
+
+  /**
+   * @return The value matched by this query, or null if
+   * it's a range query.
+   */
+  public String getValue() {
+    return value;
+  }
+
+  public boolean isRange() {
+    return value == null;
+  }
+
+  public double getMin() {
+    return min;
+  }
+
+  public double getMax() {
+    return max;
+  }
+
+  public boolean isDescending() {
+    return descending;
+  }
+}
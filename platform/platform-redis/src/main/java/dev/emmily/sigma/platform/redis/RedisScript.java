@@ -0,0 +1,43 @@
+package dev.emmily.sigma.platform.redis;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * A Lua script executed with EVALSHA, so its source is only
+ * sent once per server. The script is loaded the first time
+ * it's used, and again if the server lost it, e.g. after a
+ * restart or a SCRIPT FLUSH.
+ */
+public class RedisScript {
+  private final String source;
+  private volatile byte[] sha;
+
+  public RedisScript(String source) {
+    this.source = source;
+  }
+
+  public Object eval(
+    Jedis jedis,
+    List<byte[]> keys,
+    List<byte[]> args
+  ) {
+    byte[] sha = this.sha;
+
+    if (sha != null) {
+      try {
+        return jedis.evalsha(sha, keys, args);
+      } catch (JedisNoScriptException ignored) {
+        // loaded again below
+      }
+    }
+
+    sha = jedis.scriptLoad(source).getBytes(StandardCharsets.UTF_8);
+    this.sha = sha;
+
+    return jedis.evalsha(sha, keys, args);
+  }
+}
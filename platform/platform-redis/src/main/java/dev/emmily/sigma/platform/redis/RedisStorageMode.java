@@ -0,0 +1,29 @@
+package dev.emmily.sigma.platform.redis;
+
+import dev.emmily.sigma.api.codec.ModelCodec;
+
+/**
+ * Represents the layout used by a {@link RedisModelRepository}
+ * to store its models.
+ */
+public enum RedisStorageMode {
+  /**
+   * Every model is stored as a string holding the output of
+   * {@link ModelCodec#serializeAsString}.
+   */
+  STRING,
+  /**
+   * Every model is stored as the output of
+   * {@link ModelCodec#serializeAsBytes}, which is sent and
+   * received without being converted to strings, allowing
+   * the usage of compact binary codecs.
+   */
+  BINARY,
+  /**
+   * Every model is stored as a hash holding one field per
+   * top-level property, as returned by
+   * {@link ModelCodec#serializeAsMap}, which allows reading
+   * and writing only some of the properties of a model.
+   */
+  HASH
+}
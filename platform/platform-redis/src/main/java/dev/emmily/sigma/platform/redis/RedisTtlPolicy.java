@@ -0,0 +1,81 @@
+package dev.emmily.sigma.platform.redis;
+
+import dev.emmily.sigma.api.Model;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * Decides the expiration of the models stored by a
+ * {@link RedisModelRepository}. The time to live of a model
+ * is computed every time it's written, and, if the policy is
+ * sliding, it's extended every time the model is read, so
+ * frequently read models stay stored while the rest of them
+ * expire.
+ *
+ * @param <T> The type of model handled by this policy.
+ */
+public class RedisTtlPolicy<T extends Model> {
+  private final ToIntFunction<? super T> ttlFunction;
+  private final int slidingTtl;
+
+  private RedisTtlPolicy(
+    ToIntFunction<? super T> ttlFunction,
+    int slidingTtl
+  ) {
+    this.ttlFunction = ttlFunction;
+    this.slidingTtl = slidingTtl;
+  }
+
+  /**
+   * @param ttl The time to live in seconds of every model,
+   *            0 or less means no expiration.
+   */
+  public static <T extends Model> RedisTtlPolicy<T> fixed(int ttl) {
+    return new RedisTtlPolicy<>(model -> ttl, 0);
+  }
+
+  public static <T extends Model> RedisTtlPolicy<T> none() {
+    return fixed(0);
+  }
+
+  /**
+   * @param ttlFunction The function computing the time to live
+   *                    in seconds of every written model, 0 or
+   *                    less means no expiration.
+   */
+  public static <T extends Model> RedisTtlPolicy<T> perModel(ToIntFunction<? super T> ttlFunction) {
+    return new RedisTtlPolicy<>(ttlFunction, 0);
+  }
+
+  /**
+   * @param ttl The time to live in seconds of every model,
+   *            which is reset every time the model is read.
+   */
+  public static <T extends Model> RedisTtlPolicy<T> sliding(int ttl) {
+    return new RedisTtlPolicy<>(model -> ttl, ttl);
+  }
+
+  /**
+   * @param slidingTtl The time to live in seconds set every time
+   *                   a model is read, unless it's persistent or
+   *                   expires later, 0 or less disables sliding
+   *                   expiration.
+   * @return A copy of this policy using the given sliding time
+   * to live.
+   */
+  public RedisTtlPolicy<T> withSliding(int slidingTtl) {
+    return new RedisTtlPolicy<>(ttlFunction, slidingTtl);
+  }
+
+  public int ttlOf(T model) {
+    return ttlFunction.applyAsInt(model);
+  }
+
+  public boolean isSliding() {
+    return slidingTtl > 0;
+  }
+
+  public int getSlidingTtl() {
+    return slidingTtl;
+  }
+}
@@ -0,0 +1,39 @@
+package dev.emmily.sigma.platform.redis;
+
+import dev.emmily.sigma.api.Model;
+
+/**
+ * A model read together with the version stamp it had
+ * when it was read, which must be used as the expected
+ * version when writing it back with
+ * {@link RedisModelRepository#compareAndSet(Model, long)}.
+ *
+ * @param <T> The type of the model.
+ */
+public class VersionStamped<T extends Model> {
+  private final T model;
+  private final long version;
+
+  public VersionStamped(
+    T model,
+    long version
+  ) {
+    this.model = model;
+    this.version = version;
+  }
+
+  /**
+   * @return The read model, or null if it doesn't exist.
+   */
+  public T getModel() {
+    return model;
+  }
+
+  /**
+   * @return The version of the model, 0 if it was never
+   * written using a versioned write.
+   */
+  public long getVersion() {
+    return version;
+  }
+}
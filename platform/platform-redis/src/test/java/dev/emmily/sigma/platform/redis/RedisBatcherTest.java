@@ -0,0 +1,190 @@
+package dev.emmily.sigma.platform.redis;
+
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import team.unnamed.reflect.identity.TypeReference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RedisBatcherTest {
+  private static final HostAndPort TARGET = new HostAndPort("127.0.0.1", 7002);
+  private static final List<String> IDS = Arrays.asList("a1", "b1", "a2", "b2");
+  private FakeConnections connections;
+  private RedisBatcher<TestModel> batcher;
+  private List<List<String>> sentGroups;
+  private int attempts;
+
+  @Before
+  public void setUp() {
+    connections = new FakeConnections();
+    batcher = new RedisBatcher<>(
+      connections,
+      new RedisKeys("test", "model", RedisHashTag.ID),
+      null,
+      TypeReference.of(TestModel.class),
+      RedisTtlPolicy.none()
+    );
+    batcher.setBatchExecutor(Runnable::run);
+    sentGroups = new ArrayList<>();
+    attempts = 0;
+  }
+
+  @Test
+  public void testGroupsElementsByNode() {
+    connections.router = FakeConnections::nodeByLetter;
+    List<String> results = batcher.perNode(IDS, this::formatId, this::send);
+
+    assertEquals(Arrays.asList(Arrays.asList("a1", "a2"), Arrays.asList("b1", "b2")), sentGroups);
+    assertEquals(Arrays.asList("a1", "a2", "b1", "b2"), results);
+  }
+
+  @Test
+  public void testSendsNothingWithoutElements() {
+    assertTrue(batcher.perNode(new ArrayList<String>(), this::formatId, this::send).isEmpty());
+    assertTrue(sentGroups.isEmpty());
+  }
+
+  @Test
+  public void testRegroupsElementsAfterMovedSlot() {
+    // every id is served by a single node until the slots of the "b" ids move
+    connections.router = key -> "node-a";
+    connections.refreshedRouter = FakeConnections::nodeByLetter;
+    List<String> results = batcher.perNode(IDS, this::formatId, group -> {
+      if (connections.refreshes == 0 && group.contains("b1")) {
+        attempts++;
+        throw new JedisMovedDataException("MOVED", TARGET, 0);
+      }
+
+      return send(group);
+    });
+
+    assertEquals(1, attempts);
+    assertEquals(1, connections.refreshes);
+    assertEquals(Arrays.asList(Arrays.asList("a1", "a2"), Arrays.asList("b1", "b2")), sentGroups);
+    assertEquals(Arrays.asList("a1", "a2", "b1", "b2"), results);
+  }
+
+  @Test
+  public void testRetriesMigratingSlotWithoutRefreshing() {
+    connections.router = FakeConnections::nodeByLetter;
+    List<String> results = batcher.perNode(IDS, this::formatId, group -> {
+      if (group.contains("b1") && ++attempts < 3) {
+        throw new JedisAskDataException("ASK", TARGET, 0);
+      }
+
+      return send(group);
+    });
+
+    assertEquals(3, attempts);
+    assertEquals(0, connections.refreshes);
+    assertEquals(Arrays.asList("a1", "a2", "b1", "b2"), results);
+  }
+
+  @Test
+  public void testGivesUpAfterMaxRedirections() {
+    connections.router = key -> "node-a";
+    JedisMovedDataException moved = new JedisMovedDataException("MOVED", TARGET, 0);
+    long start = System.nanoTime();
+
+    try {
+      batcher.perNode(IDS, this::formatId, group -> {
+        attempts++;
+        throw moved;
+      });
+      fail("The batches were sent after being redirected every time");
+    } catch (JedisMovedDataException e) {
+      assertEquals(moved, e);
+    }
+
+    assertEquals(RedisConnections.MAX_REDIRECTIONS, attempts);
+    assertEquals(RedisConnections.MAX_REDIRECTIONS - 1, connections.refreshes);
+    // 20 + 40 + 80 + 160 milliseconds
+    assertTrue(System.nanoTime() - start >= 300_000_000L);
+  }
+
+  private String formatId(String id) {
+    return "test:model:{" + id + "}";
+  }
+
+  private List<String> send(List<String> group) {
+    sentGroups.add(group);
+
+    return group;
+  }
+
+  /**
+   * Routes the keys to the nodes chosen by a function, which is
+   * replaced when the distribution of the slots is reloaded.
+   */
+  private static class FakeConnections
+    extends RedisConnections {
+    private Function<String, String> router;
+    private Function<String, String> refreshedRouter;
+    private int refreshes;
+
+    private static String nodeByLetter(String key) {
+      return "node-" + key.charAt(key.indexOf('{') + 1);
+    }
+
+    @Override
+    public boolean isCluster() {
+      return true;
+    }
+
+    @Override
+    public Jedis getResource(String key) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <R> R execute(
+      String key,
+      Function<Jedis, R> commands
+    ) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <E> Collection<List<E>> groupByNode(
+      List<E> elements,
+      Function<? super E, String> keyFunction
+    ) {
+      Map<String, List<E>> groups = new LinkedHashMap<>();
+
+      for (E element : elements) {
+        groups.computeIfAbsent(router.apply(keyFunction.apply(element)), node -> new ArrayList<>()).add(element);
+      }
+
+      return groups.values();
+    }
+
+    @Override
+    public List<Supplier<Jedis>> getPrimaries() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void refresh() {
+      refreshes++;
+
+      if (refreshedRouter != null) {
+        router = refreshedRouter;
+      }
+    }
+  }
+}
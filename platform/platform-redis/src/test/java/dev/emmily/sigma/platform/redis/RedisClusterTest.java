@@ -0,0 +1,257 @@
+package dev.emmily.sigma.platform.redis;
+
+import dev.emmily.sigma.platform.codec.gson.GsonModelCodec;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.util.JedisClusterCRC16;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs a {@link RedisModelRepository} against a local cluster of
+ * three primaries, each of them serving a third of the slots.
+ */
+public class RedisClusterTest {
+  private static final String HOST = "127.0.0.1";
+  private static final int[] PORTS = {7301, 7302, 7303};
+  private static final int SLOTS_PER_NODE = 16384 / PORTS.length + 1;
+  private static final List<RedisServer> servers = new ArrayList<>();
+  private static JedisCluster cluster;
+  private static RedisConnections connections;
+  private RedisModelRepository<TestModel> repository;
+
+  @BeforeClass
+  public static void startCluster() throws IOException, InterruptedException {
+    Path directory = Files.createTempDirectory("sigma-cluster");
+
+    for (int port : PORTS) {
+      RedisServer server = RedisServer.newRedisServer()
+        .port(port)
+        .setting("bind " + HOST)
+        .setting("cluster-enabled yes")
+        .setting("cluster-config-file nodes-" + port + ".conf")
+        .setting("dir " + directory)
+        .setting("appendonly no")
+        .build();
+      server.start();
+      servers.add(server);
+    }
+
+    for (int i = 0; i < PORTS.length; i++) {
+      try (Jedis jedis = new Jedis(HOST, PORTS[i])) {
+        jedis.clusterAddSlots(IntStream.range(i * SLOTS_PER_NODE, Math.min(16384, (i + 1) * SLOTS_PER_NODE)).toArray());
+
+        if (i > 0) {
+          jedis.clusterMeet(HOST, PORTS[0]);
+        }
+      }
+    }
+
+    awaitCluster();
+    cluster = new JedisCluster(new HostAndPort(HOST, PORTS[0]));
+    connections = RedisConnections.of(cluster);
+  }
+
+  @AfterClass
+  public static void stopCluster() throws IOException {
+    if (cluster != null) {
+      cluster.close();
+    }
+
+    for (RedisServer server : servers) {
+      server.stop();
+    }
+  }
+
+  @Before
+  public void setUp() {
+    repository = new RedisModelRepository<>(
+      Runnable::run,
+      connections,
+      new GsonModelCodec(),
+      "test",
+      TestModel.class,
+      0
+    );
+  }
+
+  @Test
+  public void testGroupsKeysByServingNode() {
+    List<String> ids = new ArrayList<>();
+
+    for (int i = 0; i < 300; i++) {
+      ids.add("grouped-" + i);
+    }
+
+    Collection<List<String>> groups = connections.groupByNode(ids, repository::formatId);
+    int[] owners = slotOwners();
+    Set<Integer> groupNodes = new HashSet<>();
+    int grouped = 0;
+
+    for (List<String> group : groups) {
+      Set<Integer> nodes = new HashSet<>();
+
+      for (String id : group) {
+        nodes.add(owners[JedisClusterCRC16.getSlot(repository.formatId(id))]);
+      }
+
+      assertEquals(1, nodes.size());
+      groupNodes.addAll(nodes);
+      grouped += group.size();
+    }
+
+    assertEquals(PORTS.length, groups.size());
+    assertEquals(PORTS.length, groupNodes.size());
+    assertEquals(ids.size(), grouped);
+  }
+
+  @Test
+  public void testFindsModelsOfMovedSlot() {
+    TestModel moved = new TestModel("moved", "value");
+    TestModel kept = new TestModel("kept", "value");
+    repository.create(moved);
+    repository.create(kept);
+    // loads the distribution of the slots before moving one of them
+    assertEquals(Arrays.asList(moved, kept), repository.findMany(Arrays.asList("moved", "kept"), -1));
+
+    int slot = JedisClusterCRC16.getSlot(repository.formatId("moved"));
+    int source = slotOwners()[slot];
+    // single reads and batches are redirected after a move each
+    migrateSlot(slot, source, (source + 1) % PORTS.length, true);
+    assertEquals(moved, repository.find("moved"));
+    migrateSlot(slot, (source + 1) % PORTS.length, (source + 2) % PORTS.length, true);
+    assertEquals(Arrays.asList(moved, kept), repository.findMany(Arrays.asList("moved", "kept"), -1));
+  }
+
+  @Test
+  public void testFindsModelOfMigratingSlot() {
+    TestModel migrated = new TestModel("migrated", "value");
+    repository.create(migrated);
+    assertEquals(migrated, repository.find("migrated"));
+
+    int slot = JedisClusterCRC16.getSlot(repository.formatId("migrated"));
+    int source = slotOwners()[slot];
+    int target = (source + 1) % PORTS.length;
+    // the source node answers with an ASK redirection for the migrated key
+    migrateSlot(slot, source, target, false);
+
+    try {
+      assertEquals(migrated, repository.find("migrated"));
+    } finally {
+      finishMigration(slot, target);
+    }
+  }
+
+  /**
+   * @return The index of the node currently serving every slot.
+   */
+  @SuppressWarnings("unchecked")
+  private static int[] slotOwners() {
+    int[] owners = new int[16384];
+
+    try (Jedis jedis = new Jedis(HOST, PORTS[0])) {
+      // every range is [start, end, [host, port, id], replicas...]
+      for (Object range : jedis.clusterSlots()) {
+        List<Object> info = (List<Object>) range;
+        int port = ((Long) ((List<Object>) info.get(2)).get(1)).intValue();
+        int owner = 0;
+
+        while (PORTS[owner] != port) {
+          owner++;
+        }
+
+        Arrays.fill(owners, ((Long) info.get(0)).intValue(), ((Long) info.get(1)).intValue() + 1, owner);
+      }
+    }
+
+    return owners;
+  }
+
+  /**
+   * Moves the keys of the given slot from the source node to the
+   * target node as a resharding does, and assigns the slot to the
+   * target node if the migration is finished.
+   */
+  private static void migrateSlot(
+    int slot,
+    int source,
+    int target,
+    boolean finish
+  ) {
+    try (Jedis sourceNode = new Jedis(HOST, PORTS[source]); Jedis targetNode = new Jedis(HOST, PORTS[target])) {
+      targetNode.clusterSetSlotImporting(slot, nodeId(sourceNode));
+      sourceNode.clusterSetSlotMigrating(slot, nodeId(targetNode));
+
+      for (String key : sourceNode.clusterGetKeysInSlot(slot, 1000)) {
+        sourceNode.migrate(HOST, PORTS[target], key, 5000);
+      }
+    }
+
+    if (finish) {
+      finishMigration(slot, target);
+    }
+  }
+
+  private static void finishMigration(
+    int slot,
+    int target
+  ) {
+    String targetId;
+
+    try (Jedis targetNode = new Jedis(HOST, PORTS[target])) {
+      targetId = nodeId(targetNode);
+    }
+
+    for (int port : PORTS) {
+      try (Jedis jedis = new Jedis(HOST, port)) {
+        jedis.clusterSetSlotNode(slot, targetId);
+      }
+    }
+  }
+
+  private static String nodeId(Jedis jedis) {
+    for (String line : jedis.clusterNodes().split("\n")) {
+      if (line.contains("myself")) {
+        return line.substring(0, line.indexOf(' '));
+      }
+    }
+
+    throw new IllegalStateException("The node doesn't know itself");
+  }
+
+  /**
+   * Waits until every node knows the slots of every other node.
+   */
+  private static void awaitCluster() throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10_000;
+
+    for (int port : PORTS) {
+      try (Jedis jedis = new Jedis(HOST, port)) {
+        while (!jedis.clusterInfo().contains("cluster_state:ok") || jedis.clusterSlots().size() < PORTS.length) {
+          if (System.currentTimeMillis() > deadline) {
+            throw new IllegalStateException("The cluster wasn't formed in time");
+          }
+
+          Thread.sleep(100);
+        }
+      }
+    }
+  }
+}
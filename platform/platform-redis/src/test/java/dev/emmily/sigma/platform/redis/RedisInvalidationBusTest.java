@@ -0,0 +1,149 @@
+package dev.emmily.sigma.platform.redis;
+
+import dev.emmily.sigma.platform.codec.gson.GsonModelCodec;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.args.ClientType;
+import redis.clients.jedis.params.ClientKillParams;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs two repositories with near caches, linked by a
+ * {@link RedisInvalidationBus}, against a local Redis server.
+ */
+public class RedisInvalidationBusTest {
+  private static final int PORT = 7311;
+  private static final GsonModelCodec CODEC = new GsonModelCodec();
+  private static RedisServer server;
+  private static JedisPool jedisPool;
+  private RedisModelRepository<TestModel> first;
+  private RedisModelRepository<TestModel> second;
+
+  @BeforeClass
+  public static void startServer() throws IOException {
+    server = RedisServer.newRedisServer()
+      .port(PORT)
+      .setting("bind 127.0.0.1")
+      .setting("appendonly no")
+      .build();
+    server.start();
+    jedisPool = new JedisPool("127.0.0.1", PORT);
+  }
+
+  @AfterClass
+  public static void stopServer() throws IOException {
+    if (jedisPool != null) {
+      jedisPool.close();
+    }
+
+    server.stop();
+  }
+
+  @Before
+  public void setUp() throws InterruptedException {
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.flushAll();
+    }
+
+    first = repository();
+    second = repository();
+    awaitSubscribers(2);
+  }
+
+  @After
+  public void tearDown() {
+    first.disableNearCache();
+    second.disableNearCache();
+  }
+
+  @Test
+  public void testWritesOfOtherRepositoriesEvictModels() throws InterruptedException {
+    TestModel model = new TestModel("model", "first");
+    first.create(model);
+    assertEquals(model, first.find("model"));
+
+    // the near cache serves writes which aren't published
+    writeBehind(new TestModel("model", "unpublished"));
+    assertEquals(model, first.find("model"));
+
+    TestModel updated = new TestModel("model", "second");
+    second.create(updated);
+    await(updated, () -> first.find("model"));
+  }
+
+  @Test
+  public void testResubscriptionsResetNearCaches() throws InterruptedException {
+    TestModel model = new TestModel("model", "first");
+    first.create(model);
+    assertEquals(model, first.find("model"));
+
+    TestModel missed = new TestModel("model", "missed");
+    writeBehind(missed);
+    assertEquals(model, first.find("model"));
+
+    // invalidations published while reconnecting are lost
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.clientKill(ClientKillParams.clientKillParams().type(ClientType.PUBSUB));
+    }
+
+    await(missed, () -> first.find("model"));
+    awaitSubscribers(2);
+  }
+
+  private RedisModelRepository<TestModel> repository() {
+    RedisModelRepository<TestModel> repository = new RedisModelRepository<>(
+      Runnable::run,
+      jedisPool,
+      CODEC,
+      "test",
+      TestModel.class,
+      0
+    );
+    repository.enableNearCache(100, 60_000);
+
+    return repository;
+  }
+
+  /**
+   * Writes the given model skipping the repositories, so
+   * their near caches aren't told about it.
+   */
+  private void writeBehind(TestModel model) {
+    try (Jedis jedis = jedisPool.getResource()) {
+      jedis.set(first.formatId(model.getId()), CODEC.serializeAsString(model));
+    }
+  }
+
+  private void awaitSubscribers(int subscribers) throws InterruptedException {
+    String channel = first.formatId("") + "invalidations";
+
+    await((long) subscribers, () -> {
+      try (Jedis jedis = jedisPool.getResource()) {
+        return jedis.pubsubNumSub(channel).get(channel);
+      }
+    });
+  }
+
+  private static <V> void await(
+    V expected,
+    Supplier<V> actual
+  ) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+
+    while (!expected.equals(actual.get()) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+
+    assertEquals(expected, actual.get());
+  }
+}
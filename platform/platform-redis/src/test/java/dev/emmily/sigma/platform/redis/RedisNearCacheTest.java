@@ -0,0 +1,88 @@
+package dev.emmily.sigma.platform.redis;
+
+import dev.emmily.sigma.api.invalidation.LocalInvalidationBus;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RedisNearCacheTest {
+  private static final TestModel FIRST = new TestModel("first", "value");
+  private static final TestModel SECOND = new TestModel("second", "value");
+  private static final TestModel THIRD = new TestModel("third", "value");
+  private LocalInvalidationBus bus;
+
+  @Before
+  public void setUp() {
+    bus = new LocalInvalidationBus();
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsedModels() {
+    RedisNearCache<TestModel> cache = new RedisNearCache<>(bus, 2, 60_000);
+    cache.put(FIRST);
+    cache.put(SECOND);
+    // the first model is now the most recently used
+    assertEquals(FIRST, cache.get("first"));
+    cache.put(THIRD);
+
+    assertEquals(FIRST, cache.get("first"));
+    assertNull(cache.get("second"));
+    assertEquals(THIRD, cache.get("third"));
+  }
+
+  @Test
+  public void testExpiresModels() throws InterruptedException {
+    RedisNearCache<TestModel> cache = new RedisNearCache<>(bus, 10, 50);
+    cache.put(FIRST);
+    assertEquals(FIRST, cache.get("first"));
+
+    Thread.sleep(100);
+    assertNull(cache.get("first"));
+  }
+
+  @Test
+  public void testEvictsModelsInvalidatedByOtherCaches() {
+    RedisNearCache<TestModel> cache = new RedisNearCache<>(bus, 10, 60_000);
+    RedisNearCache<TestModel> other = new RedisNearCache<>(bus, 10, 60_000);
+    cache.put(FIRST);
+    cache.put(SECOND);
+    other.put(FIRST);
+
+    other.invalidate(Collections.singletonList("first"));
+    assertNull(cache.get("first"));
+    assertEquals(SECOND, cache.get("second"));
+    assertNull(other.get("first"));
+
+    other.invalidateAll();
+    assertNull(cache.get("second"));
+  }
+
+  @Test
+  public void testSkipsModelsReadBeforeInvalidation() {
+    RedisNearCache<TestModel> cache = new RedisNearCache<>(bus, 10, 60_000);
+    long generation = cache.generation();
+    // a model read from Redis is invalidated before being cached
+    bus.publish("other", Collections.singletonList("first"));
+    cache.put(FIRST, generation);
+    assertNull(cache.get("first"));
+
+    cache.put(FIRST, cache.generation());
+    assertEquals(FIRST, cache.get("first"));
+  }
+
+  @Test
+  public void testStopsListeningWhenClosed() {
+    RedisNearCache<TestModel> cache = new RedisNearCache<>(bus, 10, 60_000);
+    cache.put(FIRST);
+    cache.close();
+    assertNull(cache.get("first"));
+
+    long generation = cache.generation();
+    bus.publish("other", Collections.singletonList("first"));
+    assertEquals(generation, cache.generation());
+  }
+}
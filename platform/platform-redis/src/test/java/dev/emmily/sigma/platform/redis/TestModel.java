@@ -0,0 +1,53 @@
+package dev.emmily.sigma.platform.redis;
+
+import dev.emmily.sigma.api.Model;
+
+import java.util.Objects;
+
+class TestModel
+  implements Model {
+  private final String id;
+  private final String value;
+
+  TestModel(
+    String id,
+    String value
+  ) {
+    this.id = id;
+    this.value = value;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+
+    if (!(o instanceof TestModel)) {
+      return false;
+    }
+
+    TestModel other = (TestModel) o;
+
+    return id.equals(other.id) && Objects.equals(value, other.value);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(id, value);
+  }
+
+  @Override
+  public String toString() {
+    return "TestModel{id=" + id + ", value=" + value + "}";
+  }
+}